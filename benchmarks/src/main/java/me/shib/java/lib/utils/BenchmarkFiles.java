@@ -0,0 +1,43 @@
+package me.shib.java.lib.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Creates and removes the files the benchmarks work on.
+ */
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    /**
+     * @param file the file to write
+     * @param size the number of bytes to write
+     * @param seed the seed of the random content, or -1 for content that compresses well
+     */
+    static void write(File file, int size, long seed) throws IOException {
+        byte[] data = new byte[size];
+        if (seed >= 0) {
+            new Random(seed).nextBytes(data);
+        } else {
+            for (int i = 0; i < size; i++) {
+                data[i] = (byte) ('a' + ((i / 7) % 26));
+            }
+        }
+        Files.write(file.toPath(), data);
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+}
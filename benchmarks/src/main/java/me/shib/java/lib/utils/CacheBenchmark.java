@@ -0,0 +1,83 @@
+package me.shib.java.lib.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reads and writes of a {@link LocalFileCache} over its default file store, with entries of various sizes
+ * spread over various numbers of keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+    private static final String type = "benchmark";
+
+    @Param({"256", "16384", "262144"})
+    private int payloadSize;
+
+    @Param({"16", "1024"})
+    private int keyCount;
+
+    private File cacheDirectory;
+    private LocalFileCache localFileCache;
+    private String[] keys;
+    private byte[] payload;
+    private String content;
+
+    @Setup
+    public void setup() throws IOException {
+        cacheDirectory = Files.createTempDirectory("cache-benchmark").toFile();
+        localFileCache = new LocalFileCache(cacheDirectory.getPath(), true);
+        payload = new byte[payloadSize];
+        new Random(payloadSize).nextBytes(payload);
+        StringBuilder contentBuilder = new StringBuilder();
+        while (contentBuilder.length() < payloadSize) {
+            contentBuilder.append("The quick brown fox jumps over the lazy dog\n");
+        }
+        content = contentBuilder.substring(0, payloadSize);
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key-" + i;
+            localFileCache.putDataForKey(type, keys[i], payload);
+            localFileCache.putDataForKey(type + "-text", keys[i], content);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        localFileCache.close();
+        BenchmarkFiles.deleteRecursively(cacheDirectory);
+    }
+
+    private String randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keyCount)];
+    }
+
+    @Benchmark
+    public ByteBuffer getRaw() {
+        return localFileCache.getRawDataForKey(type, randomKey());
+    }
+
+    @Benchmark
+    public String getText() {
+        return localFileCache.getDataforKey(type + "-text", randomKey());
+    }
+
+    @Benchmark
+    public boolean put() {
+        return localFileCache.putDataForKey(type, randomKey(), payload);
+    }
+
+}
@@ -0,0 +1,50 @@
+package me.shib.java.lib.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures checksum throughput over a file, for single algorithms and for several algorithms in one pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumBenchmark {
+
+    private static final int fileSize = 64 * 1024 * 1024;
+
+    @Param({"MD5", "SHA-1", "SHA-256", "CRC32"})
+    private String algorithm;
+
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("checksum-benchmark", ".dat").toFile();
+        BenchmarkFiles.write(file, fileSize, 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Map<String, String> single() {
+        return FileUtils.calculateChecksums(file, algorithm);
+    }
+
+    @Benchmark
+    public Map<String, String> withMD5InOnePass() {
+        return FileUtils.calculateChecksums(file, algorithm, "MD5");
+    }
+
+}
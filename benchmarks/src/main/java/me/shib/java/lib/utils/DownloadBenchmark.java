@@ -0,0 +1,79 @@
+package me.shib.java.lib.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link FileDownloader} against the {@link TestHttpServer} of the tests, which serves a file from memory and
+ * supports range requests, with single stream and segmented downloads and with in-stream checksum verification.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+
+    private static final String eTag = "\"benchmark\"";
+
+    @Param({"1048576", "33554432"})
+    private int fileSize;
+
+    @Param({"1", "4"})
+    private int segmentCount;
+
+    private String checksum;
+    private TestHttpServer server;
+    private String downloadURL;
+    private File workDirectory;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] data = TestHttpServer.randomContent(fileSize, fileSize);
+        workDirectory = Files.createTempDirectory("download-benchmark").toFile();
+        File source = new File(workDirectory, "source.dat");
+        Files.write(source.toPath(), data);
+        checksum = FileUtils.calculateChecksums(source, "SHA-256").get("SHA-256");
+        file = new File(workDirectory, "download.dat");
+        server = new TestHttpServer();
+        server.setContent(data, eTag);
+        downloadURL = server.getURL();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+        BenchmarkFiles.deleteRecursively(workDirectory);
+    }
+
+    private File download(boolean verify) {
+        FileDownloader downloader = new FileDownloader(downloadURL, file);
+        downloader.setSegmentCount(segmentCount);
+        if (verify) {
+            downloader.setExpectedChecksum("SHA-256", checksum);
+        }
+        downloader.run();
+        File downloadedFile = downloader.getDownloadProgress().getDownloadedFile();
+        if (downloadedFile == null) {
+            throw new IllegalStateException("The download ended as " + downloader.getDownloadProgress().getStatus());
+        }
+        return downloadedFile;
+    }
+
+    @Benchmark
+    public File download() {
+        return download(false);
+    }
+
+    @Benchmark
+    public File downloadVerified() {
+        return download(true);
+    }
+
+}
@@ -0,0 +1,73 @@
+package me.shib.java.lib.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the table-driven hex encoding used for cache file names with the BigInteger and regex based
+ * encoding it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyEncodingBenchmark {
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+
+    @Param({"8", "32", "128"})
+    private int keyLength;
+
+    private String key;
+    private String encodedKey;
+
+    private static String legacyEncode(String name) throws UnsupportedEncodingException {
+        return String.format("%x", new BigInteger(1, name.getBytes("UTF-8")));
+    }
+
+    private static String legacyDecode(String key) {
+        String[] byteStrings = key.split("(?<=\\G.{2})");
+        StringBuilder nameBuilder = new StringBuilder();
+        for (String byteStr : byteStrings) {
+            nameBuilder.append((char) (Byte.parseByte(byteStr, 16)));
+        }
+        return nameBuilder.toString();
+    }
+
+    @Setup
+    public void setup() {
+        StringBuilder keyBuilder = new StringBuilder();
+        for (int i = 0; i < keyLength; i++) {
+            keyBuilder.append((char) ('a' + (i % 26)));
+        }
+        key = keyBuilder.toString();
+        encodedKey = Hex.encode(key.getBytes(utf8));
+    }
+
+    @Benchmark
+    public String encodeLegacy() throws UnsupportedEncodingException {
+        return legacyEncode(key);
+    }
+
+    @Benchmark
+    public String encodeHex() {
+        return Hex.encode(key.getBytes(utf8));
+    }
+
+    @Benchmark
+    public String decodeLegacy() {
+        return legacyDecode(encodedKey);
+    }
+
+    @Benchmark
+    public String decodeHex() {
+        return new String(Hex.decode(encodedKey), utf8);
+    }
+
+}
@@ -0,0 +1,55 @@
+package me.shib.java.lib.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what recording metrics costs on its own and on a cache read, with no recorder and with a
+ * {@link SimpleMetricsRecorder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    @Param({"false", "true"})
+    private boolean recording;
+
+    private File cacheDirectory;
+    private LocalFileCache localFileCache;
+
+    @Setup
+    public void setup() throws IOException {
+        Metrics.setRecorder(recording ? new SimpleMetricsRecorder() : null);
+        cacheDirectory = Files.createTempDirectory("metrics-benchmark").toFile();
+        localFileCache = new LocalFileCache(cacheDirectory.getPath(), true);
+        localFileCache.putDataForKey("benchmark", "key", new byte[256]);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Metrics.setRecorder(null);
+        localFileCache.close();
+        BenchmarkFiles.deleteRecursively(cacheDirectory);
+    }
+
+    @Benchmark
+    public ByteBuffer cacheGet() {
+        return localFileCache.getRawDataForKey("benchmark", "key");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordLatency() {
+        Metrics.recordLatency("benchmark", Metrics.start());
+    }
+
+}
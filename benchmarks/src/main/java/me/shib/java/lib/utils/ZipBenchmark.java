@@ -0,0 +1,91 @@
+package me.shib.java.lib.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures zipping a directory of files, sequentially and in parallel, and extracting the resulting archive.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipBenchmark {
+
+    private static final int fileCount = 64;
+
+    @Param({"4096", "1048576"})
+    private int fileSize;
+
+    private File workDirectory;
+    private File sourceDirectory;
+    private File zipFile;
+    private File outputDirectory;
+    private ExecutorService executor;
+    private ZipUtil sequentialZipUtil;
+    private ZipUtil parallelZipUtil;
+
+    @Setup
+    public void setup() throws IOException {
+        workDirectory = Files.createTempDirectory("zip-benchmark").toFile();
+        sourceDirectory = new File(workDirectory, "source");
+        sourceDirectory.mkdirs();
+        for (int i = 0; i < fileCount; i++) {
+            // Half of the files compress well, the other half not at all
+            BenchmarkFiles.write(new File(sourceDirectory, "file-" + i + ".dat"), fileSize, ((i % 2) == 0) ? -1 : i);
+        }
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        sequentialZipUtil = new ZipUtil();
+        parallelZipUtil = new ZipUtil();
+        parallelZipUtil.setExecutor(executor);
+        zipFile = sequentialZipUtil.zipContent(sourceDirectory, new File(workDirectory, "source.zip"));
+        outputDirectory = new File(workDirectory, "output");
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        BenchmarkFiles.deleteRecursively(workDirectory);
+    }
+
+    @Benchmark
+    public boolean zipSequential() {
+        return sequentialZipUtil.zipContent(sourceDirectory, new DiscardingOutputStream(), false, null, null);
+    }
+
+    @Benchmark
+    public boolean zipParallel() {
+        return parallelZipUtil.zipContent(sourceDirectory, new DiscardingOutputStream(), false, null, null);
+    }
+
+    @Benchmark
+    public ExtractionResult extractAllSequential() {
+        return FileUtils.extractAll(zipFile, outputDirectory, null, null);
+    }
+
+    @Benchmark
+    public ExtractionResult extractAllParallel() {
+        return FileUtils.extractAll(zipFile, outputDirectory, executor, null);
+    }
+
+    private static final class DiscardingOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+}
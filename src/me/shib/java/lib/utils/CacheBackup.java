@@ -0,0 +1,308 @@
+package me.shib.java.lib.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes and restores backups of a {@link CacheStore}. Every backup holds a manifest listing every entry of the store
+ * with its version, but only the data of entries that changed since the backup it was based on. Entries are read
+ * through the store, so every entry in a backup is a complete version of it, never a partially written one.
+ * <p>
+ * A backup is consistent per entry, not a point-in-time snapshot of the whole store: writes that happen while it is
+ * taken may or may not be in it, independently of each other.
+ */
+final class CacheBackup {
+
+    private static final String manifestEntryName = "manifest";
+    private static final String dataEntryPrefix = "data/";
+    private static final int manifestMagic = 0x4C464342;
+    private static final int manifestVersion = 1;
+    private static final int maxReadAttempts = 5;
+    private static final Charset nameCharset = Charset.forName("UTF-8");
+
+    private static Logger logger = Logger.getLogger(CacheBackup.class.getName());
+
+    private CacheBackup() {
+    }
+
+    private static String getDataEntryName(CacheKey cacheKey) {
+        return dataEntryPrefix + Hex.encode(cacheKey.getType().getBytes(nameCharset)) + "/"
+                + Hex.encode(cacheKey.getKey().getBytes(nameCharset));
+    }
+
+    private static Map<CacheKey, CacheEntryInfo> readManifest(ZipFile backup) throws IOException {
+        ZipEntry manifestEntry = backup.getEntry(manifestEntryName);
+        if (manifestEntry == null) {
+            throw new IOException(backup.getName() + " is not a cache backup");
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(backup.getInputStream(manifestEntry)))) {
+            if ((in.readInt() != manifestMagic) || (in.readInt() != manifestVersion)) {
+                throw new IOException(backup.getName() + " has an unsupported manifest");
+            }
+            int count = in.readInt();
+            Map<CacheKey, CacheEntryInfo> manifest = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                CacheKey cacheKey = new CacheKey(in.readUTF(), in.readUTF());
+                manifest.put(cacheKey, new CacheEntryInfo(in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+            }
+            return manifest;
+        }
+    }
+
+    private static void writeManifest(ZipOutputStream zos, Map<CacheKey, CacheEntryInfo> manifest) throws IOException {
+        zos.putNextEntry(new ZipEntry(manifestEntryName));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(zos));
+        out.writeInt(manifestMagic);
+        out.writeInt(manifestVersion);
+        out.writeInt(manifest.size());
+        for (Map.Entry<CacheKey, CacheEntryInfo> entry : manifest.entrySet()) {
+            CacheEntryInfo entryInfo = entry.getValue();
+            out.writeUTF(entry.getKey().getType());
+            out.writeUTF(entry.getKey().getKey());
+            out.writeLong(entryInfo.getLastModified());
+            out.writeLong(entryInfo.getSize());
+            out.writeLong(entryInfo.getTimeToLive());
+            out.writeLong(entryInfo.getChecksum());
+        }
+        out.flush();
+        zos.closeEntry();
+    }
+
+    /**
+     * Works out which version of an entry was read, given its description from before and after the read. Without
+     * checksums the read only counts if the entry did not change in between.
+     *
+     * @return the version that the data belongs to, or null if that cannot be told
+     */
+    private static CacheEntryInfo getReadVersion(byte[] data, CacheEntryInfo before, CacheEntryInfo after) {
+        long checksum = -1;
+        for (CacheEntryInfo candidate : new CacheEntryInfo[]{after, before}) {
+            if (data.length != candidate.getSize()) {
+                continue;
+            }
+            if (candidate.getChecksum() < 0) {
+                if (before.isSameVersion(after)) {
+                    return candidate;
+                }
+                continue;
+            }
+            if (checksum < 0) {
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                checksum = crc.getValue();
+            }
+            if (checksum == candidate.getChecksum()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes a backup of the store, reading its entries one after the other while it stays writable.
+     *
+     * @param cacheStore the store to back up
+     * @param backupFile the file to write the backup to
+     * @param baseBackup the backup to write an increment to, or null to write a full backup
+     * @throws IOException if the store or the base backup could not be read, or the backup could not be written
+     */
+    static void write(CacheStore cacheStore, File backupFile, File baseBackup) throws IOException {
+        Map<CacheKey, CacheEntryInfo> baseManifest;
+        if (baseBackup != null) {
+            try (ZipFile base = new ZipFile(baseBackup)) {
+                baseManifest = readManifest(base);
+            }
+        } else {
+            baseManifest = Collections.emptyMap();
+        }
+        File parentDir = backupFile.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(".backup", ".tmp", parentDir);
+        try {
+            Map<CacheKey, CacheEntryInfo> manifest = new LinkedHashMap<>();
+            try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536))) {
+                for (String type : cacheStore.getTypes()) {
+                    for (String key : cacheStore.getKeys(type)) {
+                        CacheKey cacheKey = new CacheKey(type, key);
+                        CacheEntryInfo baseEntryInfo = baseManifest.get(cacheKey);
+                        CacheEntryInfo entryInfo = cacheStore.getEntryInfo(type, key);
+                        if ((entryInfo != null) && entryInfo.isSameVersion(baseEntryInfo)) {
+                            manifest.put(cacheKey, entryInfo);
+                            continue;
+                        }
+                        for (int attempt = 0; (entryInfo != null) && (attempt < maxReadAttempts); attempt++) {
+                            byte[] data = copy(cacheStore.read(type, key));
+                            // Described after copying, so that a version published while it was read is recognized
+                            CacheEntryInfo readEntryInfo = cacheStore.getEntryInfo(type, key);
+                            if ((data == null) || (readEntryInfo == null)) {
+                                entryInfo = null;
+                                break;
+                            }
+                            CacheEntryInfo readVersion = getReadVersion(data, entryInfo, readEntryInfo);
+                            if (readVersion != null) {
+                                zos.putNextEntry(new ZipEntry(getDataEntryName(cacheKey)));
+                                zos.write(data);
+                                zos.closeEntry();
+                                manifest.put(cacheKey, readVersion);
+                                break;
+                            }
+                            entryInfo = readEntryInfo;
+                        }
+                        if ((entryInfo != null) && (!manifest.containsKey(cacheKey))) {
+                            logger.log(Level.WARNING, "Left " + type + "/" + key + " out of the backup, since it kept changing while it was read");
+                        }
+                    }
+                }
+                writeManifest(zos, manifest);
+            }
+            try {
+                Files.move(tempFile.toPath(), backupFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Writes every entry listed in the last backup into the store, taking its data from the latest backup that holds
+     * it. Entries whose own time to live has run out are skipped.
+     * <p>
+     * Every entry is checked against its manifest and staged in a temporary directory before the first one is written,
+     * so a damaged or incomplete set of backups leaves the store untouched. The restore is not atomic otherwise: if
+     * the store fails to write an entry, the entries written before it stay restored.
+     *
+     * @param cacheStore the store to restore into
+     * @param replace    whether to delete the entries of the store that are not restored, once the restored ones
+     *                   are written, so that the store ends up holding only the backed up entries
+     * @param backups    a full backup followed by its increments, oldest first
+     * @return the number of restored entries
+     * @throws IOException if a backup could not be read, or is missing the data of an entry
+     */
+    static int restore(CacheStore cacheStore, boolean replace, File... backups) throws IOException {
+        if (backups.length == 0) {
+            return 0;
+        }
+        List<ZipFile> zipFiles = new ArrayList<>();
+        File stagingDir = null;
+        try {
+            for (File backup : backups) {
+                zipFiles.add(new ZipFile(backup));
+            }
+            Map<CacheKey, CacheEntryInfo> manifest = readManifest(zipFiles.get(zipFiles.size() - 1));
+            stagingDir = Files.createTempDirectory(backups[backups.length - 1].getAbsoluteFile().getParentFile().toPath(),
+                    ".restore").toFile();
+            long now = new Date().getTime();
+            Map<CacheKey, File> staged = new LinkedHashMap<>();
+            for (Map.Entry<CacheKey, CacheEntryInfo> entry : manifest.entrySet()) {
+                CacheKey cacheKey = entry.getKey();
+                CacheEntryInfo entryInfo = entry.getValue();
+                if ((entryInfo.getTimeToLive() >= 0) && ((entryInfo.getLastModified() + entryInfo.getTimeToLive()) <= now)) {
+                    continue;
+                }
+                ZipFile source = null;
+                String dataEntryName = getDataEntryName(cacheKey);
+                for (int i = zipFiles.size() - 1; (source == null) && (i >= 0); i--) {
+                    if (zipFiles.get(i).getEntry(dataEntryName) != null) {
+                        source = zipFiles.get(i);
+                    }
+                }
+                if (source == null) {
+                    throw new IOException("No backup holds the data of " + cacheKey.getType() + "/" + cacheKey.getKey());
+                }
+                File stagedFile = new File(stagingDir, String.valueOf(staged.size()));
+                stageEntry(source, cacheKey, entryInfo, stagedFile);
+                staged.put(cacheKey, stagedFile);
+            }
+            for (Map.Entry<CacheKey, File> stagedEntry : staged.entrySet()) {
+                CacheKey cacheKey = stagedEntry.getKey();
+                CacheEntryInfo entryInfo = manifest.get(cacheKey);
+                long timeToLive = entryInfo.getTimeToLive();
+                if (timeToLive >= 0) {
+                    timeToLive = Math.max(1, entryInfo.getLastModified() + timeToLive - now);
+                }
+                byte[] data = Files.readAllBytes(stagedEntry.getValue().toPath());
+                cacheStore.write(cacheKey.getType(), cacheKey.getKey(), data, timeToLive);
+            }
+            if (replace) {
+                for (String type : cacheStore.getTypes()) {
+                    for (String key : cacheStore.getKeys(type)) {
+                        if (!staged.containsKey(new CacheKey(type, key))) {
+                            cacheStore.delete(type, key);
+                        }
+                    }
+                }
+            }
+            return staged.size();
+        } finally {
+            for (ZipFile zipFile : zipFiles) {
+                try {
+                    zipFile.close();
+                } catch (IOException e) {
+                    logger.throwing(CacheBackup.class.getName(), "restore", e);
+                }
+            }
+            if (stagingDir != null) {
+                deleteStagingDir(stagingDir);
+            }
+        }
+    }
+
+    /**
+     * Copies the backed up data of the entry to the staging file, checking it against its manifest on the way.
+     */
+    private static void stageEntry(ZipFile backup, CacheKey cacheKey, CacheEntryInfo entryInfo, File stagedFile)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream in = backup.getInputStream(backup.getEntry(getDataEntryName(cacheKey)));
+             OutputStream out = new FileOutputStream(stagedFile)) {
+            byte[] chunk = new byte[65536];
+            int count;
+            while ((count = in.read(chunk)) >= 0) {
+                crc.update(chunk, 0, count);
+                out.write(chunk, 0, count);
+                size += count;
+            }
+        }
+        if ((size != entryInfo.getSize()) || ((entryInfo.getChecksum() >= 0) && (crc.getValue() != entryInfo.getChecksum()))) {
+            throw new IOException("The backed up data of " + cacheKey.getType() + "/" + cacheKey.getKey()
+                    + " does not match its manifest");
+        }
+    }
+
+    private static void deleteStagingDir(File stagingDir) {
+        File[] stagedFiles = stagingDir.listFiles();
+        if (stagedFiles != null) {
+            for (File stagedFile : stagedFiles) {
+                if (!stagedFile.delete()) {
+                    logger.log(Level.WARNING, "Failed to delete " + stagedFile.getAbsolutePath());
+                }
+            }
+        }
+        if (!stagingDir.delete()) {
+            logger.log(Level.WARNING, "Failed to delete " + stagingDir.getAbsolutePath());
+        }
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+}
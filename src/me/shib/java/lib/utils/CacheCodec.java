@@ -0,0 +1,36 @@
+package me.shib.java.lib.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Compresses or otherwise transforms the data of cache entries before it is stored. Every encoded entry is stored
+ * behind a small header naming the codec by its id, so entries written with different codecs, or with none, can live
+ * side by side. Implementations have to be safe for concurrent use.
+ * <p>
+ * Codecs listed under {@code META-INF/services/me.shib.java.lib.utils.CacheCodec} are registered with every
+ * {@link LocalFileCache}, so that their entries can be read even if they are not the codec currently writing.
+ */
+public interface CacheCodec {
+
+    /**
+     * @return the id stored in the header of every entry encoded by this codec. Ids 0 to 15 are reserved for the codecs
+     * of this library.
+     */
+    byte getId();
+
+    /**
+     * @param data the data to encode
+     * @return the encoded data
+     * @throws IOException if the data could not be encoded
+     */
+    byte[] encode(byte[] data) throws IOException;
+
+    /**
+     * @param in the encoded data, positioned after the header
+     * @return a stream over the decoded data, which closes the given stream when it is closed
+     * @throws IOException if the data could not be decoded
+     */
+    InputStream decode(InputStream in) throws IOException;
+
+}
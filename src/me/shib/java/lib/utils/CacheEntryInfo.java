@@ -0,0 +1,64 @@
+package me.shib.java.lib.utils;
+
+/**
+ * Describes a stored cache entry without reading its content.
+ */
+public final class CacheEntryInfo {
+
+    private final long lastModified;
+    private final long size;
+    private final long timeToLive;
+    private final long checksum;
+
+    public CacheEntryInfo(long lastModified, long size) {
+        this(lastModified, size, -1, -1);
+    }
+
+    /**
+     * @param lastModified the time the entry was written in milliseconds since the epoch
+     * @param size         the number of stored bytes
+     * @param timeToLive   how long the entry stays valid in milliseconds, or a negative value to use the
+     *                     renewal interval of the cache
+     * @param checksum     the CRC32 of the stored bytes, or -1 if it is not known
+     */
+    public CacheEntryInfo(long lastModified, long size, long timeToLive, long checksum) {
+        this.lastModified = lastModified;
+        this.size = size;
+        this.timeToLive = timeToLive;
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return the time the entry was last written in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the number of stored bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return how long the entry stays valid in milliseconds, or a negative value if the renewal interval of the
+     * cache applies
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * @return the CRC32 of the stored bytes, or -1 if it is not known
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    boolean isSameVersion(CacheEntryInfo other) {
+        return (other != null) && (lastModified == other.lastModified) && (size == other.size)
+                && (checksum == other.checksum);
+    }
+}
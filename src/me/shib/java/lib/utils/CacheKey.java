@@ -0,0 +1,39 @@
+package me.shib.java.lib.utils;
+
+final class CacheKey {
+
+    private final String type;
+    private final String key;
+    private final int hash;
+
+    CacheKey(String type, String key) {
+        this.type = type;
+        this.key = key;
+        this.hash = (31 * type.hashCode()) + key.hashCode();
+    }
+
+    String getType() {
+        return type;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey other = (CacheKey) o;
+        return type.equals(other.type) && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
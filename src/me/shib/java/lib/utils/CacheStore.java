@@ -0,0 +1,92 @@
+package me.shib.java.lib.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The storage backend behind a {@link LocalFileCache}. Implementations have to be safe for concurrent use.
+ */
+public interface CacheStore extends Closeable {
+
+    /**
+     * @return the directory holding the stored data
+     */
+    File getDirectory();
+
+    /**
+     * @return the types that currently have stored data, never null
+     * @throws IOException if the types could not be listed
+     */
+    String[] getTypes() throws IOException;
+
+    /**
+     * @param type the type to list the keys of
+     * @return the keys stored under the type, never null
+     * @throws IOException if the keys could not be listed
+     */
+    String[] getKeys(String type) throws IOException;
+
+    /**
+     * Describes an entry. This is called on every lookup, so implementations should answer it from memory.
+     *
+     * @param type the type under which the key is stored
+     * @param key  the key of the entry
+     * @return the description of the entry, or null if there is no such entry
+     * @throws IOException if the entry could not be looked up
+     */
+    CacheEntryInfo getEntryInfo(String type, String key) throws IOException;
+
+    /**
+     * @param type the type under which the key is stored
+     * @param key  the key of the entry
+     * @return a stream over the stored bytes, or null if there is no such entry
+     * @throws IOException if the entry could not be opened
+     */
+    InputStream openStream(String type, String key) throws IOException;
+
+    /**
+     * Returns the stored bytes without copying them through intermediate buffers. Large entries may be returned as a
+     * read-only memory-mapped view of the underlying file.
+     *
+     * @param type the type under which the key is stored
+     * @param key  the key of the entry
+     * @return a buffer positioned at the first stored byte, or null if there is no such entry
+     * @throws IOException if the entry could not be read
+     */
+    ByteBuffer read(String type, String key) throws IOException;
+
+    /**
+     * Replaces the stored bytes of an entry. Concurrent readers must observe either the previous or the new bytes.
+     *
+     * @param type       the type under which the key is stored
+     * @param key        the key of the entry
+     * @param data       the bytes to store
+     * @param timeToLive how long the entry stays valid in milliseconds, or a negative value to use the renewal
+     *                   interval of the cache
+     * @throws IOException if the entry could not be written
+     */
+    void write(String type, String key, byte[] data, long timeToLive) throws IOException;
+
+    /**
+     * @param type the type under which the key is stored
+     * @param key  the key of the entry
+     * @return true if an entry was deleted
+     * @throws IOException if the entry could not be deleted
+     */
+    boolean delete(String type, String key) throws IOException;
+
+    /**
+     * Deletes an entry only if it has not been rewritten since it was described by {@code expected}.
+     *
+     * @param type     the type under which the key is stored
+     * @param key      the key of the entry
+     * @param expected the description the entry must still match
+     * @return true if the entry was deleted
+     * @throws IOException if the entry could not be deleted
+     */
+    boolean deleteIfUnchanged(String type, String key, CacheEntryInfo expected) throws IOException;
+
+}
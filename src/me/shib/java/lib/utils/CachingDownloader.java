@@ -0,0 +1,203 @@
+package me.shib.java.lib.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads files through a {@link LocalFileCache}, so that a URL that was downloaded before is only downloaded again
+ * when it changed on the server. Downloaded files are kept in a directory of their own, while their ETag and
+ * Last-Modified time are kept in the cache and sent back as If-None-Match and If-Modified-Since, so that an unchanged
+ * file is answered with 304 Not Modified and served from disk. Concurrent downloads of the same URL share a single
+ * request.
+ */
+public final class CachingDownloader {
+
+    private static final String defaultCacheType = "downloads";
+    private static final String metadataSeparator = "\n";
+    private static final Charset metadataCharset = Charset.forName("UTF-8");
+
+    private static Logger logger = Logger.getLogger(CachingDownloader.class.getName());
+
+    private final LocalFileCache localFileCache;
+    private final File downloadDirectory;
+    private final ConcurrentHashMap<String, DownloadTask> inFlightDownloads;
+    private volatile String cacheType;
+    private volatile long maxAge;
+
+    /**
+     * @param localFileCache    the cache to keep the validators of downloaded files in. Its renewal interval should be
+     *                          long enough to outlive the files, or they are downloaded again in full once it passes
+     * @param downloadDirectory the directory to keep downloaded files in
+     */
+    public CachingDownloader(LocalFileCache localFileCache, File downloadDirectory) {
+        this.localFileCache = localFileCache;
+        this.downloadDirectory = downloadDirectory;
+        this.inFlightDownloads = new ConcurrentHashMap<>();
+        this.cacheType = defaultCacheType;
+        this.maxAge = 0;
+    }
+
+    /**
+     * @param cacheType the type under which validators are kept in the cache, "downloads" by default
+     */
+    public void setCacheType(String cacheType) {
+        this.cacheType = cacheType;
+    }
+
+    /**
+     * Serves a downloaded file without asking the server for the given time after it was last downloaded or found
+     * unchanged. By default the server is asked every time.
+     *
+     * @param maxAge how long a downloaded file is used without asking the server
+     * @param unit   the unit of maxAge
+     */
+    public void setMaxAge(long maxAge, TimeUnit unit) {
+        this.maxAge = Math.max(0, unit.toMillis(maxAge));
+    }
+
+    private static String getCacheKey(String downloadURL) {
+        try {
+            ChecksumEngine engine = ChecksumEngine.getInstance("SHA-256");
+            byte[] bytes = downloadURL.getBytes(metadataCharset);
+            engine.update(bytes, 0, bytes.length);
+            return engine.getValue();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Downloads the file at the URL, unless the file downloaded from it before is still current. The returned file
+     * belongs to this downloader and is replaced when the URL is downloaded again, so it should be copied to be kept.
+     *
+     * @param downloadURL the URL to download
+     * @return the downloaded file, or null if the download failed
+     */
+    public File download(String downloadURL) {
+        if (downloadURL == null) {
+            return null;
+        }
+        DownloadTask task = new DownloadTask(downloadURL);
+        DownloadTask inFlight = inFlightDownloads.putIfAbsent(downloadURL, task);
+        if (inFlight == null) {
+            task.run();
+            inFlight = task;
+        }
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.throwing(this.getClass().getName(), "download", e);
+        } catch (ExecutionException e) {
+            logger.throwing(this.getClass().getName(), "download", e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the file downloaded from the URL, so that it is downloaded in full the next time.
+     *
+     * @param downloadURL the URL whose file to forget
+     * @return true if a downloaded file was deleted
+     */
+    public boolean invalidate(String downloadURL) {
+        String cacheKey = getCacheKey(downloadURL);
+        localFileCache.deleteData(cacheType, cacheKey);
+        return new File(downloadDirectory, cacheKey).delete();
+    }
+
+    private Metadata getMetadata(String downloadURL, String cacheKey) {
+        String content = localFileCache.getDataForKey(cacheType, cacheKey, metadataCharset);
+        if (content == null) {
+            return null;
+        }
+        String[] fields = content.split(metadataSeparator, -1);
+        if ((fields.length != 4) || (!fields[0].equals(downloadURL))) {
+            return null;
+        }
+        try {
+            return new Metadata(fields[1].isEmpty() ? null : fields[1], fields[2].isEmpty() ? null : fields[2],
+                    Long.parseLong(fields[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void putMetadata(String downloadURL, String cacheKey, Metadata metadata) {
+        String content = downloadURL + metadataSeparator + ((metadata.eTag == null) ? "" : metadata.eTag)
+                + metadataSeparator + ((metadata.lastModified == null) ? "" : metadata.lastModified)
+                + metadataSeparator + metadata.validatedAt;
+        if (!localFileCache.putDataForKey(cacheType, cacheKey, content, metadataCharset)) {
+            logger.log(Level.WARNING, "Failed to store the validators of " + downloadURL);
+        }
+    }
+
+    private File downloadIfModified(String downloadURL) throws IOException {
+        String cacheKey = getCacheKey(downloadURL);
+        File file = new File(downloadDirectory, cacheKey);
+        Metadata metadata = file.exists() ? getMetadata(downloadURL, cacheKey) : null;
+        long now = new Date().getTime();
+        if ((metadata != null) && ((now - metadata.validatedAt) < maxAge)) {
+            return file;
+        }
+        FileDownloader downloader = new FileDownloader(downloadURL, file);
+        if (metadata != null) {
+            downloader.setValidators(metadata.eTag, metadata.lastModified);
+        }
+        downloader.run();
+        File downloadedFile = downloader.getDownloadProgress().getDownloadedFile();
+        if (downloadedFile == null) {
+            throw new IOException("Failed to download " + downloadURL + ", the download ended as "
+                    + downloader.getDownloadProgress().getStatus());
+        }
+        String eTag = downloader.getResponseETag();
+        String lastModified = downloader.getResponseLastModified();
+        if (downloader.isNotModified()) {
+            // A 304 only has to repeat the validators that changed
+            eTag = (eTag != null) ? eTag : metadata.eTag;
+            lastModified = (lastModified != null) ? lastModified : metadata.lastModified;
+        }
+        putMetadata(downloadURL, cacheKey, new Metadata(eTag, lastModified, now));
+        return downloadedFile;
+    }
+
+    private static final class Metadata {
+
+        private final String eTag;
+        private final String lastModified;
+        private final long validatedAt;
+
+        private Metadata(String eTag, String lastModified, long validatedAt) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.validatedAt = validatedAt;
+        }
+    }
+
+    private final class DownloadTask extends FutureTask<File> {
+
+        private final String downloadURL;
+
+        private DownloadTask(final String downloadURL) {
+            super(new Callable<File>() {
+                @Override
+                public File call() throws IOException {
+                    return downloadIfModified(downloadURL);
+                }
+            });
+            this.downloadURL = downloadURL;
+        }
+
+        @Override
+        protected void done() {
+            inFlightDownloads.remove(downloadURL, this);
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package me.shib.java.lib.utils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Calculates a checksum incrementally with either a {@link MessageDigest} or a {@link Checksum}, so that data can be
+ * hashed while it is read or written.
+ */
+final class ChecksumEngine {
+
+    private final MessageDigest digest;
+    private final Checksum checksum;
+
+    private ChecksumEngine(MessageDigest digest, Checksum checksum) {
+        this.digest = digest;
+        this.checksum = checksum;
+    }
+
+    /**
+     * @param algorithm a {@link MessageDigest} algorithm, such as "MD5", "SHA-1" and "SHA-256", or "CRC32" or, on
+     *                  Java 9 or later, "CRC32C"
+     * @return a new engine for the algorithm
+     * @throws NoSuchAlgorithmException if the algorithm is not supported
+     */
+    static ChecksumEngine getInstance(String algorithm) throws NoSuchAlgorithmException {
+        if ("CRC32".equalsIgnoreCase(algorithm)) {
+            return new ChecksumEngine(null, new CRC32());
+        }
+        if ("CRC32C".equalsIgnoreCase(algorithm)) {
+            try {
+                return new ChecksumEngine(null, (Checksum) Class.forName("java.util.zip.CRC32C").getDeclaredConstructor().newInstance());
+            } catch (ReflectiveOperationException e) {
+                throw new NoSuchAlgorithmException("CRC32C needs Java 9 or later");
+            }
+        }
+        return new ChecksumEngine(MessageDigest.getInstance(algorithm), null);
+    }
+
+    void update(byte[] bytes, int offset, int length) {
+        if (digest != null) {
+            digest.update(bytes, offset, length);
+        } else {
+            checksum.update(bytes, offset, length);
+        }
+    }
+
+    /**
+     * @return the lower case hex checksum of everything updated so far, leading zeros included
+     */
+    String getValue() {
+        if (digest != null) {
+            return Hex.encode(digest.digest());
+        }
+        long value = checksum.getValue();
+        return Hex.encode(new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+    }
+
+}
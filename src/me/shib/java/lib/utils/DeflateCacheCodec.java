@@ -0,0 +1,57 @@
+package me.shib.java.lib.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses entries with the zlib format of {@link Deflater}.
+ */
+public final class DeflateCacheCodec implements CacheCodec {
+
+    static final byte id = 1;
+
+    private final int level;
+
+    public DeflateCacheCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level the compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public DeflateCacheCodec(int level) {
+        if (((level < Deflater.BEST_SPEED) || (level > Deflater.BEST_COMPRESSION)) && (level != Deflater.DEFAULT_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    public byte getId() {
+        return id;
+    }
+
+    @Override
+    public byte[] encode(byte[] data) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            DeflaterOutputStream out = new DeflaterOutputStream(encoded, deflater, 8192);
+            out.write(data);
+            out.close();
+            return encoded.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public InputStream decode(InputStream in) throws IOException {
+        return new InflaterInputStream(in);
+    }
+
+}
@@ -0,0 +1,242 @@
+package me.shib.java.lib.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Runs {@link FileDownloader}s on a bounded pool of workers instead of a thread per download. Downloads wait in a
+ * priority queue until both a worker and a slot for their host are free. The segments of segmented downloads share
+ * one pool of threads, which is grown as needed and keeps idle threads for a minute.
+ */
+public final class DownloadManager implements Closeable {
+
+    private static Logger logger = Logger.getLogger(DownloadManager.class.getName());
+
+    private final int maxConcurrentDownloads;
+    private final int maxDownloadsPerHost;
+    private final ExecutorService executor;
+    private final ExecutorService segmentExecutor;
+    private final TreeSet<DownloadTask> pending;
+    private final Map<String, Integer> activePerHost;
+    private final Set<DownloadTask> active;
+    private long sequence;
+    private boolean closed;
+
+    /**
+     * @param maxConcurrentDownloads the maximum number of downloads running at once
+     * @param maxDownloadsPerHost    the maximum number of downloads from a single host running at once
+     */
+    public DownloadManager(int maxConcurrentDownloads, int maxDownloadsPerHost) {
+        this(maxConcurrentDownloads, maxDownloadsPerHost, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DownloadManager-worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param maxConcurrentDownloads the maximum number of downloads running at once
+     * @param maxDownloadsPerHost    the maximum number of downloads from a single host running at once
+     * @param threadFactory          creates the worker threads, such as a factory of virtual threads on Java 21
+     */
+    public DownloadManager(int maxConcurrentDownloads, int maxDownloadsPerHost, ThreadFactory threadFactory) {
+        if ((maxConcurrentDownloads < 1) || (maxDownloadsPerHost < 1)) {
+            throw new IllegalArgumentException("At least one download has to be allowed to run");
+        }
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+        this.maxDownloadsPerHost = maxDownloadsPerHost;
+        this.executor = Executors.newFixedThreadPool(maxConcurrentDownloads, threadFactory);
+        this.segmentExecutor = Executors.newCachedThreadPool(threadFactory);
+        this.pending = new TreeSet<>();
+        this.activePerHost = new HashMap<>();
+        this.active = new HashSet<>();
+        this.sequence = 0;
+        this.closed = false;
+    }
+
+    private static String getHost(String downloadURL) {
+        try {
+            return new URL(downloadURL).getHost().toLowerCase(Locale.ENGLISH);
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    public Future<File> submit(String downloadURL, File file) {
+        return submit(new FileDownloader(downloadURL, file), 0);
+    }
+
+    public Future<File> submit(String downloadURL, File file, int priority) {
+        return submit(new FileDownloader(downloadURL, file), priority);
+    }
+
+    /**
+     * Queues a download. Downloads with a higher priority start first, and downloads of the same priority start in
+     * the order they were submitted. Cancelling the returned future cancels the download, whether it is queued or
+     * running.
+     *
+     * @param downloader the download to run, which must not have been started as a thread
+     * @param priority   the priority of the download
+     * @return the downloaded file, or an {@link ExecutionException} if the download failed
+     */
+    public Future<File> submit(FileDownloader downloader, int priority) {
+        downloader.setSegmentExecutor(segmentExecutor);
+        DownloadTask task;
+        synchronized (this) {
+            task = new DownloadTask(downloader, getHost(downloader.getDownloadURL()), priority, sequence++);
+            if (closed) {
+                task.cancel(false);
+                return task;
+            }
+            pending.add(task);
+        }
+        dispatch();
+        return task;
+    }
+
+    /**
+     * @return the number of downloads waiting to start
+     */
+    public synchronized int getQueuedCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of downloads running
+     */
+    public synchronized int getActiveCount() {
+        return active.size();
+    }
+
+    private void dispatch() {
+        List<DownloadTask> ready = new ArrayList<>();
+        synchronized (this) {
+            Iterator<DownloadTask> candidates = pending.iterator();
+            while ((!closed) && (active.size() < maxConcurrentDownloads) && candidates.hasNext()) {
+                DownloadTask candidate = candidates.next();
+                Integer hostCount = activePerHost.get(candidate.host);
+                if ((hostCount != null) && (hostCount >= maxDownloadsPerHost)) {
+                    continue;
+                }
+                candidates.remove();
+                activePerHost.put(candidate.host, (hostCount == null) ? 1 : (hostCount + 1));
+                active.add(candidate);
+                ready.add(candidate);
+            }
+        }
+        for (DownloadTask task : ready) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                logger.throwing(this.getClass().getName(), "dispatch", e);
+                task.cancel(false);
+            }
+        }
+    }
+
+    private void release(DownloadTask task) {
+        synchronized (this) {
+            if (!active.remove(task)) {
+                return;
+            }
+            Integer hostCount = activePerHost.get(task.host);
+            if ((hostCount == null) || (hostCount <= 1)) {
+                activePerHost.remove(task.host);
+            } else {
+                activePerHost.put(task.host, hostCount - 1);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Cancels every queued and running download and stops the workers.
+     */
+    @Override
+    public void close() {
+        List<DownloadTask> tasks;
+        synchronized (this) {
+            closed = true;
+            tasks = new ArrayList<>(pending);
+            tasks.addAll(active);
+        }
+        for (DownloadTask task : tasks) {
+            task.cancel(true);
+        }
+        executor.shutdownNow();
+        segmentExecutor.shutdownNow();
+    }
+
+    private final class DownloadTask extends FutureTask<File> implements Comparable<DownloadTask> {
+
+        private final FileDownloader downloader;
+        private final String host;
+        private final int priority;
+        private final long sequence;
+        private final AtomicBoolean started;
+
+        private DownloadTask(final FileDownloader downloader, String host, int priority, long sequence) {
+            super(new Callable<File>() {
+                @Override
+                public File call() throws IOException {
+                    downloader.run();
+                    FileDownloader.DownloadProgress progress = downloader.getDownloadProgress();
+                    if (progress.getDownloadedFile() == null) {
+                        throw new IOException("Failed to download " + downloader.getDownloadURL() + ", the download ended as "
+                                + progress.getStatus());
+                    }
+                    return progress.getDownloadedFile();
+                }
+            });
+            this.downloader = downloader;
+            this.host = host;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.started = new AtomicBoolean();
+        }
+
+        @Override
+        public void run() {
+            started.set(true);
+            try {
+                super.run();
+            } finally {
+                release(this);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean queued;
+            synchronized (DownloadManager.this) {
+                queued = pending.remove(this);
+            }
+            downloader.cancel();
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if ((!queued) && (!started.get())) {
+                // A worker may already hold it, but will skip it now
+                release(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(DownloadTask other) {
+            if (priority != other.priority) {
+                return (priority > other.priority) ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+}
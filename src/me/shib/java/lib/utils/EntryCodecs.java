@@ -0,0 +1,200 @@
+package me.shib.java.lib.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Frames encoded entries behind a header and picks the codec to decode them with. Entries without the header are
+ * returned as they are, which keeps entries written before a codec was configured readable.
+ */
+final class EntryCodecs {
+
+    private static final byte[] magic = {0, 'L', 'F'};
+    private static final byte identityId = 0;
+    private static final int headerLength = magic.length + 1;
+
+    private static Logger logger = Logger.getLogger(EntryCodecs.class.getName());
+
+    private final ConcurrentHashMap<Byte, CacheCodec> codecs;
+
+    EntryCodecs() {
+        this.codecs = new ConcurrentHashMap<>();
+        register(new DeflateCacheCodec());
+        register(new GzipCacheCodec());
+        Iterator<CacheCodec> providers = ServiceLoader.load(CacheCodec.class).iterator();
+        while (true) {
+            try {
+                if (!providers.hasNext()) {
+                    break;
+                }
+                register(providers.next());
+            } catch (ServiceConfigurationError e) {
+                logger.throwing(this.getClass().getName(), "EntryCodecs", e);
+            }
+        }
+    }
+
+    void register(CacheCodec codec) {
+        if (codec.getId() == identityId) {
+            throw new IllegalArgumentException("The codec id " + identityId + " is reserved");
+        }
+        CacheCodec previous = codecs.put(codec.getId(), codec);
+        if ((previous != null) && (previous.getClass() != codec.getClass())) {
+            logger.log(Level.WARNING, "Codec " + codec.getClass().getName() + " replaced "
+                    + previous.getClass().getName() + " for id " + codec.getId());
+        }
+    }
+
+    /**
+     * @param data      the data to store
+     * @param codec     the codec to encode with, or null to store the data as it is
+     * @param threshold the size below which data is stored as it is
+     * @return the bytes to store
+     */
+    byte[] encode(byte[] data, CacheCodec codec, int threshold) throws IOException {
+        if ((codec != null) && (data.length >= threshold)) {
+            byte[] encoded = codec.encode(data);
+            if ((encoded.length + headerLength) < data.length) {
+                return frame(codec.getId(), encoded);
+            }
+        }
+        if (hasHeader(data)) {
+            return frame(identityId, data);
+        }
+        return data;
+    }
+
+    private static byte[] frame(byte id, byte[] data) {
+        byte[] framed = new byte[headerLength + data.length];
+        System.arraycopy(magic, 0, framed, 0, magic.length);
+        framed[magic.length] = id;
+        System.arraycopy(data, 0, framed, headerLength, data.length);
+        return framed;
+    }
+
+    private static boolean hasHeader(byte[] data) {
+        if (data.length < headerLength) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (data[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CacheCodec getCodec(byte id) throws IOException {
+        CacheCodec codec = codecs.get(id);
+        if (codec == null) {
+            throw new IOException("No codec is registered for id " + id);
+        }
+        return codec;
+    }
+
+    /**
+     * @param in the stored bytes, or null
+     * @return a stream over the decoded data, or null if in is null
+     */
+    InputStream decode(InputStream in) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        BufferedInputStream buffered = new BufferedInputStream(in, 8192);
+        buffered.mark(headerLength);
+        byte[] header = new byte[headerLength];
+        int read = 0;
+        int count;
+        while ((read < headerLength) && ((count = buffered.read(header, read, headerLength - read)) >= 0)) {
+            read += count;
+        }
+        if ((read < headerLength) || (!hasHeader(header))) {
+            buffered.reset();
+            return buffered;
+        }
+        byte id = header[magic.length];
+        if (id == identityId) {
+            return buffered;
+        }
+        try {
+            return getCodec(id).decode(buffered);
+        } catch (IOException e) {
+            buffered.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param data the stored bytes, or null
+     * @return the decoded data, or null if data is null. Data that was stored as it is comes back without a copy.
+     */
+    ByteBuffer decode(ByteBuffer data) throws IOException {
+        if ((data == null) || (data.remaining() < headerLength)) {
+            return data;
+        }
+        int position = data.position();
+        for (int i = 0; i < magic.length; i++) {
+            if (data.get(position + i) != magic[i]) {
+                return data;
+            }
+        }
+        byte id = data.get(position + magic.length);
+        ByteBuffer encoded = data.duplicate();
+        encoded.position(position + headerLength);
+        if (id == identityId) {
+            return encoded.slice();
+        }
+        CacheCodec codec = getCodec(id);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(Math.max(64, encoded.remaining() * 4));
+        try (InputStream in = codec.decode(new ByteBufferInputStream(encoded))) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                decoded.write(buffer, 0, count);
+            }
+        }
+        return ByteBuffer.wrap(decoded.toByteArray()).asReadOnlyBuffer();
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+}
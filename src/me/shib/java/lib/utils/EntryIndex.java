@@ -0,0 +1,341 @@
+package me.shib.java.lib.utils;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the {@link CacheEntryInfo} of every entry in memory, backed by an append-only journal so that it can be
+ * loaded on startup instead of being rebuilt from file system metadata.
+ * <p>
+ * Updates are applied to memory right away and queued for the journal. Whichever writer takes the journal lock
+ * first appends every queued record with a single flush, so concurrent writers share flushes instead of taking
+ * turns. Once the journal holds mostly stale records it is compacted on a background thread, and writers only
+ * wait for the short swap at its end.
+ */
+final class EntryIndex implements Closeable {
+
+    private static final byte opPut = 1;
+    private static final byte opRemove = 2;
+    private static final int minimumRecordsBeforeCompaction = 1024;
+
+    private static Logger logger = Logger.getLogger(EntryIndex.class.getName());
+    private static final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EntryIndex-compaction");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File journalFile;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntryInfo>> entries;
+    private final ArrayDeque<Record> pendingRecords;
+    private final AtomicLong lastQueued;
+    private final AtomicLong liveEntries;
+    private final AtomicBoolean compactionScheduled;
+    private final ReentrantLock journalLock;
+    private final Object compactionLock;
+    private volatile long lastWritten;
+    private DataOutputStream journal;
+    private long journalRecords;
+    private List<Record> recordsSinceSnapshot;
+    private boolean closed;
+
+    EntryIndex(File journalFile) throws IOException {
+        this.journalFile = journalFile;
+        this.entries = new ConcurrentHashMap<>();
+        this.pendingRecords = new ArrayDeque<>();
+        this.lastQueued = new AtomicLong();
+        this.liveEntries = new AtomicLong();
+        this.compactionScheduled = new AtomicBoolean();
+        this.journalLock = new ReentrantLock();
+        this.compactionLock = new Object();
+        this.lastWritten = 0;
+        if (journalFile.exists()) {
+            load();
+        }
+        compact();
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                byte op = in.readByte();
+                String type = in.readUTF();
+                String key = in.readUTF();
+                if (op == opPut) {
+                    CacheEntryInfo entryInfo = new CacheEntryInfo(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+                    if (getTypeEntries(type).put(key, entryInfo) == null) {
+                        liveEntries.incrementAndGet();
+                    }
+                } else if (op == opRemove) {
+                    Map<String, CacheEntryInfo> typeEntries = entries.get(type);
+                    if ((typeEntries != null) && (typeEntries.remove(key) != null)) {
+                        liveEntries.decrementAndGet();
+                    }
+                } else {
+                    logger.log(Level.WARNING, "Ignoring the unreadable end of " + journalFile.getAbsolutePath());
+                    break;
+                }
+            }
+        } catch (EOFException | UTFDataFormatException ignored) {
+        }
+    }
+
+    private ConcurrentHashMap<String, CacheEntryInfo> getTypeEntries(String type) {
+        ConcurrentHashMap<String, CacheEntryInfo> typeEntries = entries.get(type);
+        if (typeEntries == null) {
+            ConcurrentHashMap<String, CacheEntryInfo> newEntries = new ConcurrentHashMap<>();
+            typeEntries = entries.putIfAbsent(type, newEntries);
+            if (typeEntries == null) {
+                typeEntries = newEntries;
+            }
+        }
+        return typeEntries;
+    }
+
+    CacheEntryInfo get(String type, String key) {
+        Map<String, CacheEntryInfo> typeEntries = entries.get(type);
+        if (typeEntries == null) {
+            return null;
+        }
+        return typeEntries.get(key);
+    }
+
+    List<String> getTypes() {
+        List<String> types = new ArrayList<>();
+        for (Map.Entry<String, ConcurrentHashMap<String, CacheEntryInfo>> typeEntries : entries.entrySet()) {
+            if (!typeEntries.getValue().isEmpty()) {
+                types.add(typeEntries.getKey());
+            }
+        }
+        return types;
+    }
+
+    List<String> getKeys(String type) {
+        Map<String, CacheEntryInfo> typeEntries = entries.get(type);
+        if (typeEntries == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(typeEntries.keySet());
+    }
+
+    /**
+     * Callers have to serialize updates of the same key, so that they reach the journal in the order they were
+     * applied.
+     */
+    void put(String type, String key, CacheEntryInfo entryInfo) throws IOException {
+        if (getTypeEntries(type).put(key, entryInfo) == null) {
+            liveEntries.incrementAndGet();
+        }
+        append(new Record(opPut, type, key, entryInfo));
+    }
+
+    /**
+     * Callers have to serialize updates of the same key, see {@link #put(String, String, CacheEntryInfo)}.
+     */
+    void remove(String type, String key) throws IOException {
+        Map<String, CacheEntryInfo> typeEntries = entries.get(type);
+        if ((typeEntries == null) || (typeEntries.remove(key) == null)) {
+            return;
+        }
+        liveEntries.decrementAndGet();
+        append(new Record(opRemove, type, key, null));
+    }
+
+    /**
+     * Queues the record and returns once it has been flushed to the journal, either by this thread or by another
+     * writer that flushed it along with its own.
+     */
+    private void append(Record record) throws IOException {
+        long sequence;
+        synchronized (pendingRecords) {
+            sequence = lastQueued.incrementAndGet();
+            pendingRecords.add(record);
+        }
+        if (lastWritten >= sequence) {
+            return;
+        }
+        boolean compactionNeeded;
+        journalLock.lock();
+        try {
+            if (lastWritten >= sequence) {
+                return;
+            }
+            writePending();
+            compactionNeeded = (journalRecords > minimumRecordsBeforeCompaction)
+                    && (journalRecords > (2 * liveEntries.get()));
+        } finally {
+            journalLock.unlock();
+        }
+        if (compactionNeeded && compactionScheduled.compareAndSet(false, true)) {
+            scheduleCompaction();
+        }
+    }
+
+    private void writePending() throws IOException {
+        if (closed) {
+            throw new IOException("The entry index of " + journalFile.getParent() + " is closed");
+        }
+        long written;
+        List<Record> records = new ArrayList<>();
+        synchronized (pendingRecords) {
+            written = lastQueued.get();
+            Record record;
+            while ((record = pendingRecords.poll()) != null) {
+                records.add(record);
+            }
+        }
+        for (Record record : records) {
+            record.writeTo(journal);
+        }
+        journal.flush();
+        journalRecords += records.size();
+        if (recordsSinceSnapshot != null) {
+            recordsSinceSnapshot.addAll(records);
+        }
+        lastWritten = written;
+    }
+
+    private void scheduleCompaction() {
+        try {
+            compactionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        logger.throwing(EntryIndex.class.getName(), "compact", e);
+                    } finally {
+                        compactionScheduled.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compactionScheduled.set(false);
+            logger.throwing(this.getClass().getName(), "scheduleCompaction", e);
+        }
+    }
+
+    /**
+     * Rewrites the journal so that it holds a single record per live entry. The live entries are written out
+     * without holding the journal lock; the records written meanwhile are appended to the new journal when it
+     * replaces the old one.
+     */
+    void compact() throws IOException {
+        synchronized (compactionLock) {
+            journalLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                if (journal != null) {
+                    writePending();
+                }
+                recordsSinceSnapshot = new ArrayList<>();
+            } finally {
+                journalLock.unlock();
+            }
+            File compactedFile = new File(journalFile.getPath() + ".tmp");
+            long records = 0;
+            DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedFile)));
+            try {
+                for (Map.Entry<String, ConcurrentHashMap<String, CacheEntryInfo>> typeEntries : entries.entrySet()) {
+                    for (Map.Entry<String, CacheEntryInfo> entry : typeEntries.getValue().entrySet()) {
+                        new Record(opPut, typeEntries.getKey(), entry.getKey(), entry.getValue()).writeTo(compacted);
+                        records++;
+                    }
+                }
+                journalLock.lock();
+                try {
+                    if (closed) {
+                        return;
+                    }
+                    if (journal != null) {
+                        writePending();
+                    }
+                    for (Record record : recordsSinceSnapshot) {
+                        record.writeTo(compacted);
+                        records++;
+                    }
+                    compacted.close();
+                    if (journal != null) {
+                        journal.close();
+                    }
+                    try {
+                        Files.move(compactedFile.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(compactedFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+                    journalRecords = records;
+                } finally {
+                    recordsSinceSnapshot = null;
+                    journalLock.unlock();
+                }
+            } finally {
+                compacted.close();
+                Files.deleteIfExists(compactedFile.toPath());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        journalLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            try {
+                writePending();
+            } finally {
+                closed = true;
+                journal.close();
+            }
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    private static final class Record {
+
+        private final byte op;
+        private final String type;
+        private final String key;
+        private final CacheEntryInfo entryInfo;
+
+        private Record(byte op, String type, String key, CacheEntryInfo entryInfo) {
+            this.op = op;
+            this.type = type;
+            this.key = key;
+            this.entryInfo = entryInfo;
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeByte(op);
+            out.writeUTF(type);
+            out.writeUTF(key);
+            if (entryInfo != null) {
+                out.writeLong(entryInfo.getLastModified());
+                out.writeLong(entryInfo.getSize());
+                out.writeLong(entryInfo.getTimeToLive());
+                out.writeLong(entryInfo.getChecksum());
+            }
+        }
+    }
+
+}
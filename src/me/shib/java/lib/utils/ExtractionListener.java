@@ -0,0 +1,20 @@
+package me.shib.java.lib.utils;
+
+import java.io.File;
+
+/**
+ * Receives progress from {@link FileUtils#extractAll(File, File, java.util.concurrent.Executor, ExtractionListener)}.
+ * Calls come from the threads doing the extraction and may overlap, so they can arrive slightly out of order.
+ */
+public interface ExtractionListener {
+
+    /**
+     * @param entryName       the name of the entry that was extracted
+     * @param file            the file it was extracted to
+     * @param extractedBytes  the bytes extracted so far across all entries
+     * @param extractedCount  the number of entries extracted so far
+     * @param totalCount      the number of entries being extracted
+     */
+    void entryExtracted(String entryName, File file, long extractedBytes, int extractedCount, int totalCount);
+
+}
@@ -0,0 +1,91 @@
+package me.shib.java.lib.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The outcome of extracting an archive with
+ * {@link FileUtils#extractAll(File, File, java.util.concurrent.Executor, ExtractionListener)}.
+ */
+public final class ExtractionResult {
+
+    private final List<File> extractedFiles;
+    private final List<String> rejectedEntries;
+    private final Map<String, IOException> failedEntries;
+    private long extractedBytes;
+    private IOException archiveFailure;
+
+    ExtractionResult() {
+        this.extractedFiles = new ArrayList<>();
+        this.rejectedEntries = new ArrayList<>();
+        this.failedEntries = new LinkedHashMap<>();
+        this.extractedBytes = 0;
+    }
+
+    synchronized long addExtracted(File file, long bytes) {
+        extractedFiles.add(file);
+        extractedBytes += bytes;
+        return extractedBytes;
+    }
+
+    synchronized int getExtractedCount() {
+        return extractedFiles.size();
+    }
+
+    synchronized void addRejected(String entryName) {
+        rejectedEntries.add(entryName);
+    }
+
+    synchronized void addFailed(String entryName, IOException e) {
+        failedEntries.put(entryName, e);
+    }
+
+    synchronized void setArchiveFailure(IOException archiveFailure) {
+        this.archiveFailure = archiveFailure;
+    }
+
+    /**
+     * @return true if the archive could be read and every entry in it was extracted
+     */
+    public synchronized boolean isSuccessful() {
+        return (archiveFailure == null) && rejectedEntries.isEmpty() && failedEntries.isEmpty();
+    }
+
+    /**
+     * @return the extracted files, in the order they were completed
+     */
+    public synchronized List<File> getExtractedFiles() {
+        return new ArrayList<>(extractedFiles);
+    }
+
+    /**
+     * @return the total size of the extracted files
+     */
+    public synchronized long getExtractedBytes() {
+        return extractedBytes;
+    }
+
+    /**
+     * @return the names of the entries that were not extracted because they would have ended up outside of the output
+     * directory, such as "../../etc/passwd"
+     */
+    public synchronized List<String> getRejectedEntries() {
+        return new ArrayList<>(rejectedEntries);
+    }
+
+    /**
+     * @return the entries that could not be extracted, with the reason for each
+     */
+    public synchronized Map<String, IOException> getFailedEntries() {
+        return new LinkedHashMap<>(failedEntries);
+    }
+
+    /**
+     * @return the reason the archive itself could not be read, or null if it was read
+     */
+    public synchronized IOException getArchiveFailure() {
+        return archiveFailure;
+    }
+
+}
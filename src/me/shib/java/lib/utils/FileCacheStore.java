@@ -0,0 +1,419 @@
+package me.shib.java.lib.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Stores every entry as a separate file, in one directory per type. Entries written with their own time to live
+ * get a small metadata file next to them that holds it along with the checksum of the entry.
+ * <p>
+ * Optionally, the metadata of all entries is kept in an in-memory index that is journaled to a file in the cache
+ * directory, so lookups and listings do not touch the file system. The index is reconciled with the directory when
+ * the store is opened and assumes that this store is the only writer of the directory from then on: entries written
+ * or deleted by another store or process are only noticed once the store is opened again, and records that other
+ * writers append to the journal are lost when it is compacted. Without the index, which is the default, every lookup
+ * reads the file system and any number of stores may share the directory.
+ */
+public final class FileCacheStore implements CacheStore {
+
+    private static final int defaultLockStripes = 64;
+    private static final String dataFileExtension = ".json";
+    private static final String metadataFileExtension = ".meta";
+    private static final long mappedReadThreshold = 256 * 1024;
+    private static final String indexFileName = ".index";
+    private static final String tempFilePrefix = ".put";
+    private static final Charset nameCharset = Charset.forName("UTF-8");
+
+    private static Logger logger = Logger.getLogger(FileCacheStore.class.getName());
+
+    private File directory;
+    private boolean applyKeyEncoding;
+    private ReentrantLock[] writeLocks;
+    private EntryIndex index;
+    private Map<String, String> encodedNameCache;
+
+    public FileCacheStore(File directory, boolean applyKeyEncoding) {
+        this(directory, applyKeyEncoding, 0, false);
+    }
+
+    public FileCacheStore(File directory, boolean applyKeyEncoding, int encodedNameCacheSize) {
+        this(directory, applyKeyEncoding, encodedNameCacheSize, false);
+    }
+
+    /**
+     * @param directory            the directory to store the entries in
+     * @param applyKeyEncoding     whether types and keys are hex encoded into file names
+     * @param encodedNameCacheSize how many encoded names of the most recently used types and keys to remember,
+     *                             0 to encode them on every access
+     * @param useIndex             whether to keep the metadata of all entries in a journaled in-memory index, which
+     *                             requires this store to be the only writer of the directory
+     */
+    public FileCacheStore(File directory, boolean applyKeyEncoding, int encodedNameCacheSize, boolean useIndex) {
+        this.directory = directory;
+        this.applyKeyEncoding = applyKeyEncoding;
+        if (applyKeyEncoding && (encodedNameCacheSize > 0)) {
+            final int maxEncodedNames = encodedNameCacheSize;
+            this.encodedNameCache = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > maxEncodedNames;
+                }
+            });
+        }
+        if ((!directory.exists()) || (!directory.isDirectory())) {
+            if (!directory.mkdirs()) {
+                logger.log(Level.WARNING, directory.getAbsolutePath() + " was not created.");
+            }
+        }
+        this.writeLocks = new ReentrantLock[defaultLockStripes];
+        for (int i = 0; i < writeLocks.length; i++) {
+            writeLocks[i] = new ReentrantLock();
+        }
+        if (!useIndex) {
+            return;
+        }
+        try {
+            this.index = new EntryIndex(new File(directory, indexFileName));
+            reconcileIndex();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Falling back to file system lookups, the entry index of "
+                    + directory.getAbsolutePath() + " could not be opened", e);
+            this.index = null;
+        }
+    }
+
+    private void reconcileIndex() throws IOException {
+        Set<String> present = new HashSet<>();
+        File[] typeDirs = directory.listFiles();
+        if (typeDirs != null) {
+            for (File typeDir : typeDirs) {
+                String[] fileNames = typeDir.list();
+                if (fileNames == null) {
+                    continue;
+                }
+                String encodedType = typeDir.getName();
+                for (String fileName : fileNames) {
+                    if (fileName.startsWith(tempFilePrefix)) {
+                        if (!new File(typeDir, fileName).delete()) {
+                            logger.log(Level.WARNING, "Failed to delete " + fileName + " in " + typeDir.getAbsolutePath());
+                        }
+                    } else if (fileName.endsWith(dataFileExtension)) {
+                        String encodedKey = fileName.substring(0, fileName.length() - dataFileExtension.length());
+                        present.add(encodedType + File.separator + encodedKey);
+                        if (index.get(encodedType, encodedKey) == null) {
+                            CacheEntryInfo entryInfo = getFileEntryInfo(new File(typeDir, fileName),
+                                    new File(typeDir, encodedKey + metadataFileExtension));
+                            if (entryInfo != null) {
+                                index.put(encodedType, encodedKey, entryInfo);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (String encodedType : index.getTypes()) {
+            for (String encodedKey : index.getKeys(encodedType)) {
+                if (!present.contains(encodedType + File.separator + encodedKey)) {
+                    index.remove(encodedType, encodedKey);
+                }
+            }
+        }
+    }
+
+    private ReentrantLock getWriteLock(String type, String key) {
+        int hash = (31 * String.valueOf(type).hashCode()) + String.valueOf(key).hashCode();
+        hash ^= (hash >>> 16);
+        return writeLocks[hash & (writeLocks.length - 1)];
+    }
+
+    private static boolean prepareStoreDir(File storeDir) {
+        return (storeDir.exists() && storeDir.isDirectory()) || storeDir.mkdirs() || storeDir.isDirectory();
+    }
+
+    private String getEncodedName(String name) {
+        if (!applyKeyEncoding) {
+            return name;
+        }
+        if (encodedNameCache == null) {
+            return Hex.encode(name.getBytes(nameCharset));
+        }
+        String encodedName = encodedNameCache.get(name);
+        if (encodedName == null) {
+            encodedName = Hex.encode(name.getBytes(nameCharset));
+            encodedNameCache.put(name, encodedName);
+        }
+        return encodedName;
+    }
+
+    private String decodeKeyToName(String key) {
+        if (!applyKeyEncoding) {
+            return key;
+        }
+        byte[] nameBytes = Hex.decode(key);
+        if (nameBytes == null) {
+            logger.log(Level.FINE, "Ignoring " + key + " as it is not a hex encoded name");
+            return null;
+        }
+        return new String(nameBytes, nameCharset);
+    }
+
+    private File getStoreDir(String type) {
+        return new File(directory.getPath() + File.separator + getEncodedName(type));
+    }
+
+    private File getDataFile(File storeDir, String key) {
+        return new File(storeDir.getPath() + File.separator + getEncodedName(key) + dataFileExtension);
+    }
+
+    private File getMetadataFile(File storeDir, String key) {
+        return new File(storeDir.getPath() + File.separator + getEncodedName(key) + metadataFileExtension);
+    }
+
+    @Override
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public String[] getTypes() {
+        ArrayList<String> typeList = new ArrayList<>();
+        if (index != null) {
+            for (String encodedType : index.getTypes()) {
+                String typeName = decodeKeyToName(encodedType);
+                if (typeName != null) {
+                    typeList.add(typeName);
+                }
+            }
+        } else {
+            String[] typeDirs = directory.list();
+            if (typeDirs != null) {
+                for (String typeFile : typeDirs) {
+                    String typeName = decodeKeyToName(typeFile);
+                    if ((typeName != null) && (!indexFileName.equals(typeFile))) {
+                        typeList.add(typeName);
+                    }
+                }
+            }
+        }
+        return typeList.toArray(new String[typeList.size()]);
+    }
+
+    @Override
+    public String[] getKeys(String type) {
+        ArrayList<String> keyList = new ArrayList<>();
+        if (index != null) {
+            for (String encodedKey : index.getKeys(getEncodedName(type))) {
+                String key = decodeKeyToName(encodedKey);
+                if (key != null) {
+                    keyList.add(key);
+                }
+            }
+            return keyList.toArray(new String[keyList.size()]);
+        }
+        File keyDir = getStoreDir(type);
+        if (keyDir.exists()) {
+            String[] encodedKeys = keyDir.list();
+            if (encodedKeys != null) {
+                for (String enKey : encodedKeys) {
+                    if (!enKey.endsWith(dataFileExtension)) {
+                        continue;
+                    }
+                    String key = decodeKeyToName(enKey.substring(0, enKey.length() - dataFileExtension.length()));
+                    if (key != null) {
+                        keyList.add(key);
+                    }
+                }
+            }
+        }
+        return keyList.toArray(new String[keyList.size()]);
+    }
+
+    @Override
+    public CacheEntryInfo getEntryInfo(String type, String key) throws IOException {
+        if (index != null) {
+            return index.get(getEncodedName(type), getEncodedName(key));
+        }
+        File storeDir = getStoreDir(type);
+        return getFileEntryInfo(getDataFile(storeDir, key), getMetadataFile(storeDir, key));
+    }
+
+    /**
+     * Describes an entry from the attributes of its file, along with the time to live and checksum from its metadata
+     * file if that was written for the same version of the entry.
+     */
+    private static CacheEntryInfo getFileEntryInfo(File dataFile, File metadataFile) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(dataFile.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(metadataFile))) {
+            if ((in.readLong() == lastModified) && (in.readLong() == attributes.size())) {
+                return new CacheEntryInfo(lastModified, attributes.size(), in.readLong(), in.readLong());
+            }
+        } catch (FileNotFoundException | EOFException ignored) {
+        }
+        return new CacheEntryInfo(lastModified, attributes.size());
+    }
+
+    private static void writeMetadataFile(File storeDir, File metadataFile, CacheEntryInfo entryInfo) throws IOException {
+        File tempFile = File.createTempFile(tempFilePrefix, ".tmp", storeDir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+                out.writeLong(entryInfo.getLastModified());
+                out.writeLong(entryInfo.getSize());
+                out.writeLong(entryInfo.getTimeToLive());
+                out.writeLong(entryInfo.getChecksum());
+            }
+            moveIntoPlace(tempFile, metadataFile);
+            tempFile = null;
+        } finally {
+            if ((tempFile != null) && (!tempFile.delete())) {
+                logger.warning("Failed to delete " + tempFile.getAbsolutePath());
+            }
+        }
+    }
+
+    @Override
+    public InputStream openStream(String type, String key) throws IOException {
+        try {
+            return new FileInputStream(getDataFile(getStoreDir(type), key));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Entries of at least 256 KB are returned as a read-only memory-mapped view of the entry file, smaller entries
+     * are read into a heap buffer with a single read.
+     */
+    @Override
+    public ByteBuffer read(String type, String key) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(getDataFile(getStoreDir(type), key).toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            long size = channel.size();
+            if (size >= mappedReadThreshold) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && (channel.read(buffer) >= 0)) {
+            }
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the data to a temporary file in the type directory and atomically moves it over the existing entry,
+     * so concurrent readers either see the previous content or the new content, never a missing or partially
+     * written entry. Writers of the same key are serialized through striped locks. The metadata file is written
+     * after the entry and names the modification time and size of the version it belongs to, so that it is ignored
+     * for any other version.
+     */
+    @Override
+    public void write(String type, String key, byte[] data, long timeToLive) throws IOException {
+        File storeDir = getStoreDir(type);
+        if (!prepareStoreDir(storeDir)) {
+            throw new IOException("Failed to create " + storeDir.getAbsolutePath());
+        }
+        File dataFile = getDataFile(storeDir, key);
+        File tempFile = File.createTempFile(tempFilePrefix, ".tmp", storeDir);
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+                fos.write(data);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            File metadataFile = getMetadataFile(storeDir, key);
+            ReentrantLock lock = getWriteLock(type, key);
+            lock.lock();
+            try {
+                if (timeToLive < 0) {
+                    Files.deleteIfExists(metadataFile.toPath());
+                }
+                moveIntoPlace(tempFile, dataFile);
+                tempFile = null;
+                long lastModified = Files.getLastModifiedTime(dataFile.toPath()).toMillis();
+                CacheEntryInfo entryInfo = new CacheEntryInfo(lastModified, data.length, timeToLive, crc.getValue());
+                if (timeToLive >= 0) {
+                    writeMetadataFile(storeDir, metadataFile, entryInfo);
+                }
+                if (index != null) {
+                    index.put(getEncodedName(type), getEncodedName(key), entryInfo);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            if ((tempFile != null) && tempFile.exists() && (!tempFile.delete())) {
+                logger.warning("Failed to delete " + tempFile.getAbsolutePath());
+            }
+        }
+    }
+
+    private static void moveIntoPlace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public boolean delete(String type, String key) throws IOException {
+        return delete(type, key, null);
+    }
+
+    @Override
+    public boolean deleteIfUnchanged(String type, String key, CacheEntryInfo expected) throws IOException {
+        return delete(type, key, expected);
+    }
+
+    private boolean delete(String type, String key, CacheEntryInfo expected) throws IOException {
+        ReentrantLock lock = getWriteLock(type, key);
+        lock.lock();
+        try {
+            if ((expected != null) && (!expected.isSameVersion(getEntryInfo(type, key)))) {
+                return false;
+            }
+            File storeDir = getStoreDir(type);
+            File dataFile = getDataFile(storeDir, key);
+            boolean deleted = dataFile.exists() && dataFile.delete();
+            Files.deleteIfExists(getMetadataFile(storeDir, key).toPath());
+            if ((index != null) && (deleted || (!dataFile.exists()))) {
+                index.remove(getEncodedName(type), getEncodedName(key));
+            }
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (index != null) {
+            index.close();
+        }
+    }
+
+}
@@ -3,17 +3,45 @@ package me.shib.java.lib.utils;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public final class FileDownloader extends Thread {
 
+    private static final String partFileSuffix = ".part";
+    private static final int transferBufferSize = 256 * 1024;
+
     private static Logger logger = Logger.getLogger(FileDownloader.class.getName());
 
     private String downloadURL;
     private String downloadDirectoryPath;
     private File file;
     private DownloadProgress downloadProgress;
+    private int segmentCount;
+    private boolean resumable;
+    private ExecutorService segmentExecutor;
+    private String checksumAlgorithm;
+    private String expectedChecksum;
+    private String ifNoneMatch;
+    private String ifModifiedSince;
+    private volatile String responseETag;
+    private volatile String responseLastModified;
+    private volatile boolean notModified;
+    private CopyOnWriteArrayList<ListenerRegistration> progressListeners;
 
     public FileDownloader(String downloadURL) {
         downloadInitializer(downloadURL, null, null);
@@ -31,11 +59,111 @@ public final class FileDownloader extends Thread {
         return downloadProgress;
     }
 
+    public String getDownloadURL() {
+        return downloadURL;
+    }
+
+    /**
+     * Stops the download at the next chunk and deletes what was downloaded, unless the download is resumable.
+     * A download that has not started yet will not start.
+     *
+     * @return false if the download had already completed
+     */
+    public boolean cancel() {
+        synchronized (downloadProgress) {
+            if (downloadProgress.status == DownloadStatus.COMPLETED) {
+                return false;
+            }
+            downloadProgress.status = DownloadStatus.CANCELLED;
+            return true;
+        }
+    }
+
+    /**
+     * Downloads the file in up to the given number of segments in parallel, using HTTP range requests. Servers that
+     * do not support range requests are downloaded with a single stream as usual.
+     *
+     * @param segmentCount the maximum number of segments to download in parallel
+     */
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+
+    /**
+     * Keeps an incomplete download along with a small state file next to the file, and resumes from them when the same
+     * file is downloaded again, as long as the server still reports the same ETag or Last-Modified time.
+     * Resuming needs a server that supports range requests.
+     *
+     * @param resumable whether incomplete downloads are kept and resumed
+     */
+    public void setResumable(boolean resumable) {
+        this.resumable = resumable;
+    }
+
+    /**
+     * Downloads the segments on the given executor instead of on threads started for this download alone.
+     *
+     * @param segmentExecutor the executor to download segments on, or null
+     */
+    void setSegmentExecutor(ExecutorService segmentExecutor) {
+        this.segmentExecutor = segmentExecutor;
+    }
+
+    /**
+     * Verifies the download against a known checksum. A download that does not match fails, and the file it was
+     * downloading to is left as it was. Single stream downloads are hashed while they are written, while segmented
+     * downloads are read once more after they complete.
+     *
+     * @param algorithm        the algorithm of the checksum, as for {@link FileUtils#calculateChecksums(File, String...)}
+     * @param expectedChecksum the expected checksum in hex, or null to not verify the download
+     */
+    public void setExpectedChecksum(String algorithm, String expectedChecksum) {
+        this.checksumAlgorithm = algorithm;
+        this.expectedChecksum = expectedChecksum;
+    }
+
+    /**
+     * Makes the download conditional on the file having changed on the server since these validators were received
+     * with it. If the server reports that it has not, the download completes without touching the existing file.
+     * Conditional downloads are always made with a single stream.
+     *
+     * @param eTag         the ETag to send as If-None-Match, or null
+     * @param lastModified the Last-Modified time to send as If-Modified-Since, or null
+     */
+    void setValidators(String eTag, String lastModified) {
+        this.ifNoneMatch = eTag;
+        this.ifModifiedSince = lastModified;
+    }
+
+    /**
+     * @return the ETag the server sent with a single stream download, or null
+     */
+    String getResponseETag() {
+        return responseETag;
+    }
+
+    /**
+     * @return the Last-Modified time the server sent with a single stream download, or null
+     */
+    String getResponseLastModified() {
+        return responseLastModified;
+    }
+
+    /**
+     * @return true if a conditional download completed because the file had not changed on the server
+     */
+    boolean isNotModified() {
+        return notModified;
+    }
+
     private void downloadInitializer(String downloadURL, String downloadDirectoryPath, File file) {
         this.downloadProgress = new DownloadProgress();
         this.downloadURL = downloadURL;
         this.downloadDirectoryPath = downloadDirectoryPath;
         this.file = file;
+        this.segmentCount = 1;
+        this.resumable = false;
+        this.progressListeners = new CopyOnWriteArrayList<>();
     }
 
     private boolean prepareDownloadPath(File downloadFileDir) {
@@ -46,7 +174,13 @@ public final class FileDownloader extends Thread {
     }
 
     private File downloadFile() throws IOException {
-        downloadProgress.status = DownloadStatus.DOWNLOADING;
+        synchronized (downloadProgress) {
+            if (downloadProgress.status == DownloadStatus.CANCELLED) {
+                return null;
+            }
+            downloadProgress.status = DownloadStatus.DOWNLOADING;
+            downloadProgress.startTime = System.nanoTime();
+        }
         URL url = new URL(downloadURL);
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         String actualFileName = new File(url.getFile()).getName();
@@ -61,68 +195,357 @@ public final class FileDownloader extends Thread {
                 prepareDownloadPath(new File(file.getParent()));
             }
         }
-        downloadProgress.fileSize = connection.getContentLength();
-        BufferedInputStream in = new BufferedInputStream(connection.getInputStream());
-        FileOutputStream fos = new FileOutputStream(file);
-        BufferedOutputStream bout = new BufferedOutputStream(fos, 1024);
-        byte[] data = new byte[1024];
-        int i;
-        while (((i = in.read(data, 0, 1024)) >= 0) && (downloadProgress.status == DownloadStatus.DOWNLOADING)) {
-            downloadProgress.downloadedSize += i;
-            bout.write(data, 0, i);
-            downloadProgress.completedPercentage = (downloadProgress.downloadedSize * 100) / downloadProgress.fileSize;
-        }
-        bout.close();
-        in.close();
-        if ((file.exists()) && (downloadProgress.status == DownloadStatus.DOWNLOADING)) {
-            downloadProgress.status = DownloadStatus.COMPLETED;
-            return file;
+        File partFile = new File(file.getPath() + partFileSuffix);
+        boolean conditional = (ifNoneMatch != null) || (ifModifiedSince != null);
+        if (((segmentCount > 1) || resumable) && (!conditional)) {
+            connection.disconnect();
+            RangeDownload rangeDownload = createRangeDownload(url, partFile);
+            if (rangeDownload.download()) {
+                if ((expectedChecksum != null) && partFile.exists()
+                        && (downloadProgress.status == DownloadStatus.DOWNLOADING)) {
+                    Map<String, String> checksums = FileUtils.calculateChecksums(partFile, checksumAlgorithm);
+                    try {
+                        verifyChecksum((checksums == null) ? null : checksums.get(checksumAlgorithm));
+                    } catch (IOException e) {
+                        deletePartFile(partFile);
+                        throw e;
+                    }
+                }
+                return finish(partFile);
+            }
+            // A server without range support answers the probe with the whole file, which is read from there
+            connection = rangeDownload.getFallbackConnection();
+            if (connection == null) {
+                connection = (HttpURLConnection) url.openConnection();
+            }
+        }
+        if (ifNoneMatch != null) {
+            connection.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+        if (ifModifiedSince != null) {
+            connection.setRequestProperty("If-Modified-Since", ifModifiedSince);
+        }
+        int responseCode = connection.getResponseCode();
+        responseETag = connection.getHeaderField("ETag");
+        responseLastModified = connection.getHeaderField("Last-Modified");
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            connection.disconnect();
+            if (!(conditional && file.exists())) {
+                throw new IOException(downloadURL + " was reported as not modified, but " + file.getAbsolutePath()
+                        + " does not exist");
+            }
+            notModified = true;
+            if (complete()) {
+                return file;
+            }
+            return null;
+        }
+        downloadProgress.fileSize = connection.getContentLengthLong();
+        ChecksumEngine checksumEngine = createChecksumEngine();
+        boolean verified = false;
+        try {
+            if (downloadStream(connection, partFile, checksumEngine)) {
+                if (checksumEngine != null) {
+                    verifyChecksum(checksumEngine.getValue());
+                }
+                verified = true;
+            }
+        } finally {
+            if (!verified) {
+                deletePartFile(partFile);
+            }
+        }
+        return finish(partFile);
+    }
+
+    private boolean downloadStream(HttpURLConnection connection, File partFile, ChecksumEngine checksumEngine)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(transferBufferSize);
+        byte[] bytes = buffer.array();
+        try (ReadableByteChannel in = Channels.newChannel(connection.getInputStream());
+             FileChannel out = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            boolean endOfStream = false;
+            while ((!endOfStream) && (downloadProgress.status == DownloadStatus.DOWNLOADING)) {
+                int count = in.read(buffer);
+                if (count < 0) {
+                    endOfStream = true;
+                } else {
+                    downloadProgress.addDownloadedSize(count);
+                }
+                if ((buffer.hasRemaining()) && (!endOfStream)) {
+                    continue;
+                }
+                buffer.flip();
+                if (checksumEngine != null) {
+                    checksumEngine.update(bytes, 0, buffer.limit());
+                }
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+            return endOfStream;
+        }
+    }
+
+    private ChecksumEngine createChecksumEngine() throws IOException {
+        if (expectedChecksum == null) {
+            return null;
+        }
+        try {
+            return ChecksumEngine.getInstance(checksumAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Cannot verify the download with " + checksumAlgorithm, e);
+        }
+    }
+
+    private void verifyChecksum(String checksum) throws IOException {
+        if ((checksum == null) || (!checksum.equalsIgnoreCase(expectedChecksum))) {
+            throw new IOException("The " + checksumAlgorithm + " checksum of " + downloadURL + " is " + checksum
+                    + " instead of " + expectedChecksum);
+        }
+    }
+
+    private void deletePartFile(File partFile) {
+        RangeDownload.getStateFile(partFile).delete();
+        if (partFile.exists() && partFile.delete()) {
+            logger.log(Level.INFO, "Deleted the incomplete file " + partFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Moves a fully downloaded and verified part file into place, unless the download was cancelled meanwhile. A
+     * cancelled download keeps its part file only if it is resumable and its state was saved to resume from.
+     */
+    private File finish(File partFile) throws IOException {
+        if ((!partFile.exists()) || (downloadProgress.status != DownloadStatus.DOWNLOADING)) {
+            if (!(resumable && RangeDownload.getStateFile(partFile).exists())) {
+                deletePartFile(partFile);
+            }
+            return null;
         }
-        if (file.exists() && file.delete()) {
-            logger.log(Level.INFO, "Deleted the incomplete file " + file.getAbsolutePath());
+        try {
+            Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (complete()) {
+            return file;
         }
         return null;
     }
 
+    private boolean complete() {
+        synchronized (downloadProgress) {
+            if (downloadProgress.status != DownloadStatus.DOWNLOADING) {
+                return false;
+            }
+            downloadProgress.status = DownloadStatus.COMPLETED;
+            return true;
+        }
+    }
+
+    private RangeDownload createRangeDownload(URL url, File partFile) {
+        return new RangeDownload(url, partFile, segmentCount, resumable, new RangeDownload.Listener() {
+            @Override
+            public void lengthKnown(long length) {
+                downloadProgress.fileSize = length;
+            }
+
+            @Override
+            public void bytesWritten(long bytes) {
+                if (bytes < 0) {
+                    downloadProgress.resumedSize = 0;
+                }
+                downloadProgress.addDownloadedSize(bytes);
+            }
+
+            @Override
+            public void bytesResumed(long bytes) {
+                downloadProgress.resumedSize = bytes;
+                downloadProgress.addDownloadedSize(bytes);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return downloadProgress.status != DownloadStatus.DOWNLOADING;
+            }
+        }, segmentExecutor);
+    }
+
+    /**
+     * Registers a listener that is pushed the progress of the download from the downloading threads, at most once
+     * per interval and once more when the download ends. The listener has to return quickly, since the download
+     * waits for it.
+     *
+     * @param listener            the listener to notify
+     * @param minIntervalInMillis the minimum time between two notifications
+     */
+    public void addProgressListener(ProgressListener listener, long minIntervalInMillis) {
+        progressListeners.add(new ListenerRegistration(listener, TimeUnit.MILLISECONDS.toNanos(minIntervalInMillis)));
+    }
+
+    public void removeProgressListener(ProgressListener listener) {
+        for (ListenerRegistration registration : progressListeners) {
+            if (registration.listener == listener) {
+                progressListeners.remove(registration);
+            }
+        }
+    }
+
+    private void notifyProgressListeners(boolean force) {
+        long now = System.nanoTime();
+        for (ListenerRegistration registration : progressListeners) {
+            long lastNotified = registration.lastNotified.get();
+            if ((force || ((now - lastNotified) >= registration.minInterval))
+                    && registration.lastNotified.compareAndSet(lastNotified, now)) {
+                try {
+                    registration.listener.progressUpdated(downloadProgress);
+                } catch (RuntimeException e) {
+                    logger.throwing(this.getClass().getName(), "notifyProgressListeners", e);
+                }
+            }
+        }
+    }
+
     @Override
     public void run() {
+        long start = Metrics.start();
         try {
             downloadProgress.downloadedFile = downloadFile();
         } catch (IOException e) {
             logger.throwing(this.getClass().getName(), "run", e);
             downloadProgress.downloadedFile = null;
+            synchronized (downloadProgress) {
+                if (downloadProgress.status == DownloadStatus.DOWNLOADING) {
+                    downloadProgress.status = DownloadStatus.FAILED;
+                }
+            }
+        } finally {
+            downloadProgress.endTime = System.nanoTime();
+            recordMetrics(start);
+            notifyProgressListeners(true);
+        }
+    }
+
+    private void recordMetrics(long start) {
+        Metrics.increment("download.bytes", Math.max(0, downloadProgress.getDownloadedSize() - downloadProgress.resumedSize));
+        if (notModified) {
+            Metrics.increment("download.notModified");
+        } else if (downloadProgress.downloadedFile != null) {
+            Metrics.increment("download.completed");
+        } else if (downloadProgress.status == DownloadStatus.CANCELLED) {
+            Metrics.increment("download.cancelled");
+        } else {
+            Metrics.increment("download.failed");
         }
+        Metrics.recordLatency("download", start);
     }
 
     public enum DownloadStatus {
-        NOT_STARTED, DOWNLOADING, COMPLETED, CANCELLED;
+        NOT_STARTED, DOWNLOADING, COMPLETED, CANCELLED, FAILED;
+    }
+
+    /**
+     * Is pushed the progress of a download, see {@link #addProgressListener(ProgressListener, long)}.
+     */
+    public interface ProgressListener {
+
+        void progressUpdated(DownloadProgress progress);
     }
 
+    private static final class ListenerRegistration {
+
+        private final ProgressListener listener;
+        private final long minInterval;
+        private final AtomicLong lastNotified;
+
+        private ListenerRegistration(ProgressListener listener, long minInterval) {
+            this.listener = listener;
+            this.minInterval = minInterval;
+            this.lastNotified = new AtomicLong(System.nanoTime() - minInterval);
+        }
+    }
+
+    /**
+     * The progress of a download. Every getter reads the latest published value without locking, so it can be
+     * polled from any thread.
+     */
     public class DownloadProgress {
-        private int fileSize;
-        private int downloadedSize;
-        private int completedPercentage;
-        private File downloadedFile;
-        private DownloadStatus status;
+        private final AtomicLong downloadedSize;
+        private volatile long fileSize;
+        private volatile long resumedSize;
+        private volatile long startTime;
+        private volatile long endTime;
+        private volatile File downloadedFile;
+        private volatile DownloadStatus status;
 
         private DownloadProgress() {
-            this.fileSize = 0;
-            this.downloadedSize = 0;
-            this.completedPercentage = 0;
+            this.downloadedSize = new AtomicLong();
+            this.fileSize = -1;
+            this.resumedSize = 0;
             downloadedFile = null;
             status = DownloadStatus.NOT_STARTED;
         }
 
-        public int getFileSize() {
+        private void addDownloadedSize(long bytes) {
+            downloadedSize.addAndGet(bytes);
+            notifyProgressListeners(false);
+        }
+
+        /**
+         * @return the size of the file in bytes, or -1 if the server did not report it
+         */
+        public long getFileSize() {
             return fileSize;
         }
 
-        public int getDownloadedSize() {
-            return downloadedSize;
+        public long getDownloadedSize() {
+            return downloadedSize.get();
         }
 
+        /**
+         * @return the downloaded share of the file from 0 to 100, or 0 while the size of the file is not known
+         */
         public int getCompletedPercentage() {
-            return completedPercentage;
+            long size = fileSize;
+            if (status == DownloadStatus.COMPLETED) {
+                return 100;
+            }
+            if (size <= 0) {
+                return 0;
+            }
+            return (int) Math.min(100, (downloadedSize.get() * 100) / size);
+        }
+
+        /**
+         * @return the average download rate in bytes per second since the download started, not counting bytes
+         * that were present from an earlier attempt
+         */
+        public long getBytesPerSecond() {
+            long start = startTime;
+            if (start == 0) {
+                return 0;
+            }
+            long end = (endTime != 0) ? endTime : System.nanoTime();
+            long elapsed = end - start;
+            if (elapsed <= 0) {
+                return 0;
+            }
+            return (Math.max(0, downloadedSize.get() - resumedSize) * 1000000000L) / elapsed;
+        }
+
+        /**
+         * @return the estimated time until the download completes in milliseconds, or -1 if it cannot be estimated
+         */
+        public long getEstimatedTimeRemaining() {
+            long size = fileSize;
+            long rate = getBytesPerSecond();
+            if ((status != DownloadStatus.DOWNLOADING) || (size <= 0) || (rate <= 0)) {
+                return -1;
+            }
+            return (Math.max(0, size - downloadedSize.get()) * 1000) / rate;
         }
 
         public File getDownloadedFile() {
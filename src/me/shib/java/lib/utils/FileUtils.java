@@ -1,16 +1,31 @@
 package me.shib.java.lib.utils;
 
 import java.io.*;
-import java.math.BigInteger;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 public class FileUtils {
 
+    private static final long extractionBatchSize = 8 * 1024 * 1024;
+    private static final int extractionBatchEntries = 256;
+    private static final int extractionBufferSize = 256 * 1024;
+    private static final int checksumBufferSize = 1024 * 1024;
+
+    private static Logger logger = Logger.getLogger(FileUtils.class.getName());
+
     public static boolean unZip(File zipFile, File outputDirectory) {
         return unZip(zipFile, new ArrayList<String>(), outputDirectory);
     }
@@ -22,68 +37,384 @@ public class FileUtils {
     }
 
     public static boolean unZip(File zipFile, List<String> filesToExtract, File outputDirectory) {
-        byte[] buffer = new byte[1024];
-        try {
+        long start = Metrics.start();
+        Set<String> fileNames = new HashSet<>(filesToExtract);
+        Path outputPath = outputDirectory.getAbsoluteFile().toPath().normalize();
+        try (ZipFile zip = new ZipFile(zipFile)) {
             if (!outputDirectory.exists()) {
                 outputDirectory.mkdir();
             }
-            ZipInputStream zis = new ZipInputStream(new FileInputStream(zipFile));
-            ZipEntry ze = zis.getNextEntry();
-            while (ze != null) {
-                String fileName = ze.getName();
-                File newFile = new File(outputDirectory.getAbsolutePath() + File.separator + fileName);
-                if (filesToExtract.size() == 0 || filesToExtract.contains(newFile.getName())) {
-                    System.out.println("Extracting : " + newFile.getAbsoluteFile());
-                    if (ze.isDirectory()) {
-                        newFile.mkdirs();
-                    } else {
-                        new File(newFile.getParent()).mkdirs();
-                        FileOutputStream fos = new FileOutputStream(newFile);
-                        int len;
-                        while ((len = zis.read(buffer)) > 0) {
-                            fos.write(buffer, 0, len);
-                        }
-                        fos.close();
-                    }
+            boolean extractedAll = true;
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry ze = entries.nextElement();
+                if (!(fileNames.isEmpty() || fileNames.contains(getFileName(ze.getName())))) {
+                    continue;
+                }
+                Path entryPath = resolveEntryPath(outputPath, ze.getName());
+                if (entryPath == null) {
+                    logger.log(Level.WARNING, "Skipping " + ze.getName() + " of " + zipFile.getName()
+                            + " since it points outside " + outputDirectory.getAbsolutePath());
+                    extractedAll = false;
+                    continue;
                 }
-                ze = zis.getNextEntry();
+                File newFile = entryPath.toFile();
+                logger.log(Level.FINE, "Extracting " + newFile.getAbsolutePath());
+                extractEntry(zip, ze, newFile);
+            }
+            if (extractedAll) {
+                logger.log(Level.FINE, "Extracted " + zipFile.getName());
             }
-            zis.closeEntry();
-            zis.close();
-            System.out.println("Extracted " + zipFile.getName() + " successfully!");
-            return true;
+            return extractedAll;
         } catch (IOException ex) {
+            Metrics.increment("zip.errors");
+            logger.throwing(FileUtils.class.getName(), "unZip", ex);
             return false;
+        } finally {
+            Metrics.recordLatency("zip.extract", start);
         }
     }
 
-    private static String calculateChecksum(File file, String hashType) {
-        InputStream is = null;
-        try {
-            BigInteger checkSumInt = null;
-            MessageDigest digest = null;
-            digest = MessageDigest.getInstance(hashType);
-            is = new FileInputStream(file);
-            byte[] buffer = new byte[8192];
-            int read = 0;
-            while ((read = is.read(buffer)) > 0) {
-                digest.update(buffer, 0, read);
-            }
-            byte[] md5sum = digest.digest();
-            checkSumInt = new BigInteger(1, md5sum);
-            is.close();
-            return checkSumInt.toString(16);
-        } catch (NoSuchAlgorithmException | IOException e) {
-            return "";
+    /**
+     * Extracts the entries with the given names, looking each of them up in the central directory of the archive
+     * instead of reading through the entries before it.
+     *
+     * @param zipFile         the archive to extract from
+     * @param entryNames      the full names of the entries to extract, such as "dir/file.txt"
+     * @param outputDirectory the directory to extract the entries into, keeping their paths
+     * @return true if every entry was found and extracted
+     */
+    public static boolean extractEntries(File zipFile, Collection<String> entryNames, File outputDirectory) {
+        long start = Metrics.start();
+        Path outputPath = outputDirectory.getAbsoluteFile().toPath().normalize();
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            boolean extractedAll = true;
+            for (String entryName : new LinkedHashSet<>(entryNames)) {
+                ZipEntry ze = zip.getEntry(entryName);
+                Path entryPath = (ze == null) ? null : resolveEntryPath(outputPath, ze.getName());
+                if (entryPath == null) {
+                    extractedAll = false;
+                } else {
+                    extractEntry(zip, ze, entryPath.toFile());
+                }
+            }
+            return extractedAll;
+        } catch (IOException ex) {
+            Metrics.increment("zip.errors");
+            logger.throwing(FileUtils.class.getName(), "extractEntries", ex);
+            return false;
         } finally {
+            Metrics.recordLatency("zip.extract", start);
+        }
+    }
+
+    /**
+     * Lists the entries of an archive from its central directory, without decompressing any of them.
+     *
+     * @param zipFile the archive to list
+     * @return the entries with their names, sizes, checksums and times, or null if the archive could not be read
+     */
+    public static List<ZipEntry> listEntries(File zipFile) {
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            List<ZipEntry> entries = new ArrayList<>(zip.size());
+            Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                entries.add(zipEntries.nextElement());
+            }
+            return entries;
+        } catch (IOException ex) {
+            logger.throwing(FileUtils.class.getName(), "listEntries", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Extracts every entry of an archive, decompressing independent entries in parallel on the given executor.
+     * Entries whose names would place them outside of the output directory, such as "../evil.sh" or absolute
+     * paths, are rejected instead of being extracted.
+     *
+     * @param zipFile         the archive to extract
+     * @param outputDirectory the directory to extract the entries into, keeping their paths
+     * @param executor        the executor to extract on, or null to extract on the calling thread
+     * @param listener        notified after every extracted file, or null
+     * @return what was extracted, rejected and failed
+     */
+    public static ExtractionResult extractAll(File zipFile, File outputDirectory, Executor executor,
+                                              final ExtractionListener listener) {
+        long start = Metrics.start();
+        final ExtractionResult result = new ExtractionResult();
+        final Path outputPath = outputDirectory.getAbsoluteFile().toPath().normalize();
+        try (final ZipFile zip = new ZipFile(zipFile)) {
+            Files.createDirectories(outputPath);
+            List<List<ZipEntry>> batches = new ArrayList<>();
+            List<ZipEntry> batch = new ArrayList<>();
+            long batchSize = 0;
+            int totalCount = 0;
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry ze = entries.nextElement();
+                Path entryPath = resolveEntryPath(outputPath, ze.getName());
+                if (entryPath == null) {
+                    result.addRejected(ze.getName());
+                } else if (ze.isDirectory()) {
+                    try {
+                        Files.createDirectories(entryPath);
+                    } catch (IOException e) {
+                        result.addFailed(ze.getName(), e);
+                    }
+                } else {
+                    batch.add(ze);
+                    batchSize += Math.max(0, ze.getSize());
+                    totalCount++;
+                    if ((batchSize >= extractionBatchSize) || (batch.size() >= extractionBatchEntries)) {
+                        batches.add(batch);
+                        batch = new ArrayList<>();
+                        batchSize = 0;
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.add(batch);
+            }
+            List<FutureTask<Void>> tasks = new ArrayList<>();
+            final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+            for (final List<ZipEntry> entryBatch : batches) {
+                final int count = totalCount;
+                FutureTask<Void> task = new FutureTask<>(new Runnable() {
+                    @Override
+                    public void run() {
+                        ByteBuffer buffer = buffers.poll();
+                        if (buffer == null) {
+                            buffer = ByteBuffer.allocateDirect(extractionBufferSize);
+                        }
+                        try {
+                            extractBatch(zip, outputPath, entryBatch, buffer, result, listener, count);
+                        } finally {
+                            buffer.clear();
+                            buffers.offer(buffer);
+                        }
+                    }
+                }, null);
+                tasks.add(task);
+                if (executor == null) {
+                    task.run();
+                } else {
+                    try {
+                        executor.execute(task);
+                    } catch (RejectedExecutionException e) {
+                        task.run();
+                    }
+                }
+            }
+            for (FutureTask<Void> task : tasks) {
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    for (FutureTask<Void> pendingTask : tasks) {
+                        pendingTask.cancel(true);
+                    }
+                    result.setArchiveFailure(new InterruptedIOException("Interrupted while extracting " + zipFile.getName()));
+                    break;
+                } catch (ExecutionException e) {
+                    result.setArchiveFailure(new IOException(e.getCause()));
+                }
+            }
+        } catch (IOException e) {
+            result.setArchiveFailure(e);
+        }
+        if (!result.isSuccessful()) {
+            Metrics.increment("zip.errors");
+        }
+        Metrics.recordLatency("zip.extract", start);
+        return result;
+    }
+
+    /**
+     * Extracts a batch of entries through the given buffer. Buffers are handed back once a batch is done, so at most
+     * one is allocated for every batch that runs at the same time.
+     */
+    private static void extractBatch(ZipFile zip, Path outputPath, List<ZipEntry> entries, ByteBuffer buffer,
+                                     ExtractionResult result, ExtractionListener listener, int totalCount) {
+        for (ZipEntry ze : entries) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            Path entryPath = outputPath.resolve(ze.getName()).normalize();
             try {
-                if (is != null) {
-                    is.close();
+                Files.createDirectories(entryPath.getParent());
+                long bytes = 0;
+                try (ReadableByteChannel in = Channels.newChannel(zip.getInputStream(ze));
+                     FileChannel out = FileChannel.open(entryPath, StandardOpenOption.CREATE,
+                             StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    while (in.read(buffer) >= 0) {
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            bytes += out.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                }
+                Metrics.increment("zip.extractedEntries");
+                Metrics.increment("zip.extractedBytes", bytes);
+                File file = entryPath.toFile();
+                long extractedBytes;
+                int extractedCount;
+                synchronized (result) {
+                    extractedBytes = result.addExtracted(file, bytes);
+                    extractedCount = result.getExtractedCount();
+                }
+                if (listener != null) {
+                    listener.entryExtracted(ze.getName(), file, extractedBytes, extractedCount, totalCount);
                 }
             } catch (IOException e) {
-                return "";
+                buffer.clear();
+                result.addFailed(ze.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the last part of an entry name, which is the name of the file it would be extracted to
+     */
+    private static String getFileName(String entryName) {
+        String name = entryName;
+        while (name.endsWith("/") || name.endsWith("\\")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        return name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+    }
+
+    /**
+     * @return the path the entry extracts to, or null if it would end up outside of the output directory
+     */
+    private static Path resolveEntryPath(Path outputPath, String entryName) {
+        try {
+            Path entryPath = outputPath.resolve(entryName).normalize();
+            if (entryPath.startsWith(outputPath) && (!entryPath.equals(outputPath))) {
+                return entryPath;
+            }
+        } catch (InvalidPathException ignored) {
+        }
+        return null;
+    }
+
+    private static void extractEntry(ZipFile zip, ZipEntry ze, File newFile) throws IOException {
+        if (ze.isDirectory()) {
+            newFile.mkdirs();
+            return;
+        }
+        newFile.getParentFile().mkdirs();
+        byte[] buffer = new byte[8192];
+        long bytes = 0;
+        try (InputStream in = zip.getInputStream(ze);
+             FileOutputStream fos = new FileOutputStream(newFile)) {
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                fos.write(buffer, 0, len);
+                bytes += len;
+            }
+        }
+        Metrics.increment("zip.extractedEntries");
+        Metrics.increment("zip.extractedBytes", bytes);
+    }
+
+    private static String calculateChecksum(File file, String hashType) {
+        Map<String, String> checksums = calculateChecksums(file, hashType);
+        if (checksums == null) {
+            return "";
+        }
+        return checksums.get(hashType);
+    }
+
+    /**
+     * Calculates several checksums of a file while reading it once. Besides the {@link java.security.MessageDigest} algorithms,
+     * such as "MD5", "SHA-1" and "SHA-256", "CRC32" and, on Java 9 or later, "CRC32C" are supported.
+     *
+     * @param file       the file to calculate the checksums of
+     * @param algorithms the algorithms to calculate
+     * @return the lower case hex checksum for every algorithm, leading zeros included, keyed by the algorithm as it was
+     * given, or null if the file could not be read or an algorithm is not supported
+     */
+    public static Map<String, String> calculateChecksums(File file, String... algorithms) {
+        long start = Metrics.start();
+        ChecksumEngine[] engines = new ChecksumEngine[algorithms.length];
+        try {
+            for (int i = 0; i < algorithms.length; i++) {
+                engines[i] = ChecksumEngine.getInstance(algorithms[i]);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(checksumBufferSize);
+            byte[] bytes = buffer.array();
+            long total = 0;
+            while (channel.read(buffer) >= 0) {
+                for (ChecksumEngine engine : engines) {
+                    engine.update(bytes, 0, buffer.position());
+                }
+                total += buffer.position();
+                buffer.clear();
+            }
+            Metrics.increment("checksum.bytes", total);
+        } catch (IOException e) {
+            Metrics.increment("checksum.errors");
+            return null;
+        }
+        Map<String, String> results = new LinkedHashMap<>();
+        for (int i = 0; i < algorithms.length; i++) {
+            results.put(algorithms[i], engines[i].getValue());
+        }
+        Metrics.recordLatency("checksum.calculate", start);
+        return results;
+    }
+
+    /**
+     * Calculates several checksums of each of the files, reading different files concurrently on the executor.
+     *
+     * @param files      the files to calculate the checksums of
+     * @param executor   the executor to read the files on, or null to read them one after another on the calling thread
+     * @param algorithms the algorithms to calculate, as for {@link #calculateChecksums(File, String...)}
+     * @return the checksums of every file in the order the files were given, with null for a file that could not
+     * be read, or null if the calculation was interrupted
+     */
+    public static Map<File, Map<String, String>> calculateChecksums(Collection<File> files, Executor executor,
+                                                                   final String... algorithms) {
+        Map<File, FutureTask<Map<String, String>>> tasks = new LinkedHashMap<>();
+        for (final File file : files) {
+            FutureTask<Map<String, String>> task = new FutureTask<>(new Callable<Map<String, String>>() {
+                @Override
+                public Map<String, String> call() {
+                    return calculateChecksums(file, algorithms);
+                }
+            });
+            tasks.put(file, task);
+            if (executor == null) {
+                task.run();
+            } else {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    task.run();
+                }
+            }
+        }
+        Map<File, Map<String, String>> results = new LinkedHashMap<>();
+        for (Map.Entry<File, FutureTask<Map<String, String>>> task : tasks.entrySet()) {
+            try {
+                results.put(task.getKey(), task.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (FutureTask<Map<String, String>> pendingTask : tasks.values()) {
+                    pendingTask.cancel(true);
+                }
+                return null;
+            } catch (ExecutionException e) {
+                results.put(task.getKey(), null);
             }
         }
+        return results;
     }
 
     /**
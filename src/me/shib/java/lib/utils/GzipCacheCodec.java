@@ -0,0 +1,38 @@
+package me.shib.java.lib.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses entries in the GZIP format, which can also be read by tools outside of Java once the header is skipped.
+ */
+public final class GzipCacheCodec implements CacheCodec {
+
+    static final byte id = 2;
+
+    @Override
+    public byte getId() {
+        return id;
+    }
+
+    @Override
+    public byte[] encode(byte[] data) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        GZIPOutputStream out = new GZIPOutputStream(encoded, 8192);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return encoded.toByteArray();
+    }
+
+    @Override
+    public InputStream decode(InputStream in) throws IOException {
+        return new GZIPInputStream(in, 8192);
+    }
+
+}
@@ -0,0 +1,72 @@
+package me.shib.java.lib.utils;
+
+final class Hex {
+
+    private static final char[] digits = "0123456789abcdef".toCharArray();
+    private static final byte[] values = new byte[128];
+
+    static {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            values['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            values['a' + i] = (byte) (10 + i);
+            values['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private Hex() {
+    }
+
+    /**
+     * @param bytes the bytes to encode
+     * @return two lower case hex digits for every byte, leading zeros included
+     */
+    static String encode(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            chars[j++] = digits[(bytes[i] >>> 4) & 0x0f];
+            chars[j++] = digits[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Decodes hex digits into bytes. An odd number of digits is read as if it had a leading zero.
+     *
+     * @param hex the hex digits to decode
+     * @return the decoded bytes, or null if the input contains anything other than hex digits
+     */
+    static byte[] decode(CharSequence hex) {
+        int length = hex.length();
+        byte[] bytes = new byte[(length + 1) / 2];
+        int i = 0;
+        int j = 0;
+        if ((length & 1) != 0) {
+            int low = digit(hex.charAt(i++));
+            if (low < 0) {
+                return null;
+            }
+            bytes[j++] = (byte) low;
+        }
+        while (i < length) {
+            int high = digit(hex.charAt(i++));
+            int low = digit(hex.charAt(i++));
+            if ((high < 0) || (low < 0)) {
+                return null;
+            }
+            bytes[j++] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    private static int digit(char c) {
+        if (c >= values.length) {
+            return -1;
+        }
+        return values[c];
+    }
+}
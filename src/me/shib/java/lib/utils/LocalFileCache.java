@@ -2,27 +2,61 @@ package me.shib.java.lib.utils;
 
 
 import java.io.*;
-import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public final class LocalFileCache {
+public final class LocalFileCache implements Closeable {
 
     private static final String defaultLocalCacheDirectory = "LocalFileCacheData";
+    private static final int defaultCompressionThreshold = 1024;
 
     private static Logger logger = Logger.getLogger(LocalFileCache.class.getName());
 
-    private File localCacheDirectory;
+    private CacheStore cacheStore;
     private long localCacheRenewalInterval;
     private ZipUtil zipUtil;
-    private boolean applyKeyEncoding;
+    private volatile MemoryCache memoryCache;
+    private ConcurrentHashMap<CacheKey, LoadTask> inFlightLoads;
+    private volatile Executor refreshExecutor;
+    private volatile long maxBytesPerType;
+    private volatile int maxEntriesPerType;
+    private Object janitorLock;
+    private ScheduledExecutorService janitorExecutor;
+    private ScheduledFuture<?> janitorTask;
+    private boolean ownsJanitorExecutor;
+    private AtomicLong reclaimedBytes;
+    private AtomicLong expiredEntryCount;
+    private AtomicLong evictedEntryCount;
+    private EntryCodecs entryCodecs;
+    private volatile CacheCodec codec;
+    private ConcurrentHashMap<String, CacheCodec> typeCodecs;
+    private volatile int compressionThreshold;
 
     public LocalFileCache(long localCacheRenewalIntervalInMinutes, String localCacheDirectoryName, boolean applyKeyEncoding) {
         initializeLocalCacheManager(localCacheRenewalIntervalInMinutes, localCacheDirectoryName, applyKeyEncoding);
     }
 
+    /**
+     * @param localCacheRenewalIntervalInMinutes how long entries stay valid unless written with their own time to
+     *                                           live, or a negative value to keep them until they are deleted
+     * @param localCacheDirectoryName            the directory to store the entries in
+     * @param applyKeyEncoding                   whether types and keys are hex encoded into file names
+     * @param useIndex                           whether to keep the metadata of all entries in memory, so that
+     *                                           lookups do not touch the file system, which requires this cache to
+     *                                           be the only writer of the directory
+     * @see FileCacheStore
+     */
+    public LocalFileCache(long localCacheRenewalIntervalInMinutes, String localCacheDirectoryName,
+                          boolean applyKeyEncoding, boolean useIndex) {
+        initializeLocalCacheManager(localCacheRenewalIntervalInMinutes, localCacheDirectoryName, applyKeyEncoding,
+                useIndex);
+    }
+
     public LocalFileCache(String localCacheDirectoryName, boolean applyKeyEncoding) {
         initializeLocalCacheManager(-1, localCacheDirectoryName, applyKeyEncoding);
     }
@@ -35,172 +69,756 @@ public final class LocalFileCache {
         initializeLocalCacheManager(-1, null, applyKeyEncoding);
     }
 
+    public LocalFileCache(long localCacheRenewalIntervalInMinutes, CacheStore cacheStore) {
+        initializeLocalCacheManager(localCacheRenewalIntervalInMinutes, cacheStore);
+    }
+
+    public LocalFileCache(CacheStore cacheStore) {
+        initializeLocalCacheManager(-1, cacheStore);
+    }
+
     private void initializeLocalCacheManager(long localCacheRenewalIntervalInMinutes, String localCacheDirectoryName, boolean applyKeyEncoding) {
-        this.applyKeyEncoding = applyKeyEncoding;
+        initializeLocalCacheManager(localCacheRenewalIntervalInMinutes, localCacheDirectoryName, applyKeyEncoding, false);
+    }
+
+    private void initializeLocalCacheManager(long localCacheRenewalIntervalInMinutes, String localCacheDirectoryName,
+                                             boolean applyKeyEncoding, boolean useIndex) {
+        File localCacheDirectory;
         if ((localCacheDirectoryName == null) || (localCacheDirectoryName.isEmpty())) {
-            this.localCacheDirectory = new File(defaultLocalCacheDirectory);
+            localCacheDirectory = new File(defaultLocalCacheDirectory);
         } else {
-            this.localCacheDirectory = new File(localCacheDirectoryName);
-        }
-        if ((!this.localCacheDirectory.exists()) || (!this.localCacheDirectory.isDirectory())) {
-            if (!this.localCacheDirectory.mkdirs()) {
-                logger.log(Level.WARNING, localCacheDirectory.getAbsolutePath() + " was not created.");
-            }
+            localCacheDirectory = new File(localCacheDirectoryName);
         }
+        initializeLocalCacheManager(localCacheRenewalIntervalInMinutes, new FileCacheStore(localCacheDirectory,
+                applyKeyEncoding, 0, useIndex));
+    }
+
+    private void initializeLocalCacheManager(long localCacheRenewalIntervalInMinutes, CacheStore cacheStore) {
+        this.cacheStore = cacheStore;
         zipUtil = new ZipUtil();
+        this.inFlightLoads = new ConcurrentHashMap<>();
+        this.maxBytesPerType = -1;
+        this.maxEntriesPerType = -1;
+        this.janitorLock = new Object();
+        this.reclaimedBytes = new AtomicLong();
+        this.expiredEntryCount = new AtomicLong();
+        this.evictedEntryCount = new AtomicLong();
+        this.entryCodecs = new EntryCodecs();
+        this.typeCodecs = new ConcurrentHashMap<>();
+        this.compressionThreshold = defaultCompressionThreshold;
         this.localCacheRenewalInterval = localCacheRenewalIntervalInMinutes * 60000;
     }
 
-    private String getEncodedName(String name) {
-        if (!applyKeyEncoding) {
-            return name;
+    public MemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    /**
+     * Places a heap tier in front of the on-disk store. Passing null removes the heap tier.
+     *
+     * @param memoryCache the heap tier to serve repeated reads from
+     */
+    public void setMemoryCache(MemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * Sets the executor used to refresh stale entries in the background for
+     * {@link #getOrLoad(String, String, Callable, boolean)}. If none is set, a daemon thread pool is created on first use.
+     *
+     * @param refreshExecutor the executor to run background refreshes on
+     */
+    public void setRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    private Executor getRefreshExecutor() {
+        Executor executor = refreshExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = refreshExecutor;
+                if (executor == null) {
+                    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "LocalFileCache-refresh");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    refreshExecutor = executor;
+                }
+            }
         }
-        try {
-            return String.format("%x", new BigInteger(1, name.getBytes("UTF-8")));
-        } catch (UnsupportedEncodingException e) {
-            logger.throwing(this.getClass().getName(), "getEncodedName", e);
-            return null;
+        return executor;
+    }
+
+    /**
+     * Sets the codec that new entries are encoded with. Entries written earlier stay readable whatever codec they
+     * were written with, as long as that codec is registered.
+     *
+     * @param codec the codec to encode new entries with, or null to store them as they are
+     */
+    public void setCodec(CacheCodec codec) {
+        if (codec != null) {
+            entryCodecs.register(codec);
         }
+        this.codec = codec;
     }
 
-    private String decodeKeyToName(String key) {
-        if (!applyKeyEncoding) {
-            return key;
+    /**
+     * Sets the codec that new entries of the given type are encoded with, in place of the codec of the cache.
+     *
+     * @param type  the type to set the codec for
+     * @param codec the codec to encode new entries of the type with, or null to use the codec of the cache
+     */
+    public void setCodec(String type, CacheCodec codec) {
+        if (codec != null) {
+            entryCodecs.register(codec);
+            typeCodecs.put(type, codec);
+        } else {
+            typeCodecs.remove(type);
         }
-        try {
-            String[] byteStrings = key.split("(?<=\\G.{2})");
-            StringBuilder nameBuilder = new StringBuilder();
-            for (String byteStr : byteStrings) {
-                nameBuilder.append((char) (Byte.parseByte(byteStr, 16)));
+    }
+
+    /**
+     * Registers a codec only for reading entries that were written with it.
+     *
+     * @param codec the codec to register
+     */
+    public void registerCodec(CacheCodec codec) {
+        entryCodecs.register(codec);
+    }
+
+    /**
+     * Sets the size below which entries are stored as they are, since encoding small entries rarely pays off.
+     * Entries that do not get smaller by encoding are always stored as they are.
+     *
+     * @param compressionThreshold the size in bytes below which entries are not encoded, 1024 by default
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    private CacheCodec getCodec(String type) {
+        if (type != null) {
+            CacheCodec typeCodec = typeCodecs.get(type);
+            if (typeCodec != null) {
+                return typeCodec;
             }
-            return nameBuilder.toString();
-        } catch (Exception e) {
-            logger.throwing(this.getClass().getName(), "decodeKeyToName", e);
-            return null;
         }
+        return codec;
+    }
+
+    public CacheStore getCacheStore() {
+        return cacheStore;
     }
 
     public String[] getTypes() {
-        String[] typeDirs = localCacheDirectory.list();
-        if ((typeDirs != null) && (typeDirs.length > 0)) {
-            ArrayList<String> typeList = new ArrayList<>();
-            for (String typeFile : typeDirs) {
-                String typeName = decodeKeyToName(typeFile);
-                if (typeName != null) {
-                    typeList.add(typeName);
-                }
-            }
-            if (typeList.size() > 0) {
-                String[] typeArr = new String[typeList.size()];
-                typeArr = typeList.toArray(typeArr);
-                return typeArr;
+        try {
+            String[] types = cacheStore.getTypes();
+            if (types.length > 0) {
+                return types;
             }
+        } catch (Exception e) {
+            logger.throwing(this.getClass().getName(), "getTypes", e);
         }
         return null;
     }
 
     public String[] getKeys(String type) {
-        File keyDir = new File(localCacheDirectory.getPath() + File.separator + getEncodedName(type));
-        if (keyDir.exists()) {
-            String[] encodedKeys = keyDir.list();
-            ArrayList<String> keyList = new ArrayList<>();
-            if (encodedKeys != null) {
-                for (String enKey : encodedKeys) {
-                    String key = decodeKeyToName(enKey.replace(".json", ""));
-                    if (key != null) {
-                        keyList.add(key);
-                    }
-                }
-            }
-            if (keyList.size() > 0) {
-                String[] keyArr = new String[keyList.size()];
-                keyArr = keyList.toArray(keyArr);
-                return keyArr;
-            }
+        try {
+            return cacheStore.getKeys(type);
+        } catch (Exception e) {
+            logger.throwing(this.getClass().getName(), "getKeys", e);
+            return new String[0];
         }
-        keyDir.mkdirs();
-        return new String[0];
     }
 
     public String getDataforKey(String type, String key) {
-        try {
-            File storeDir = new File(localCacheDirectory.getPath()
-                    + File.separator + getEncodedName(type));
-            if ((!storeDir.exists()) || (!storeDir.isDirectory())) {
-                if (!storeDir.mkdirs()) {
-                    return null;
-                }
+        long start = Metrics.start();
+        String content = getData(type, key, true);
+        recordGet(start, content != null);
+        return content;
+    }
+
+    private static void recordGet(long start, boolean hit) {
+        Metrics.increment(hit ? "cache.hit" : "cache.miss");
+        Metrics.recordLatency("cache.get", start);
+    }
+
+    private String getData(String type, String key, boolean applyRenewalInterval) {
+        MemoryCache memoryCache = this.memoryCache;
+        long stamp = 0;
+        if (applyRenewalInterval && (memoryCache != null) && (type != null) && (key != null)) {
+            String content = memoryCache.get(type, key);
+            if (content != null) {
+                return content;
             }
-            File dataFile = new File(storeDir.getPath()
-                    + File.separator + getEncodedName(key) + ".json");
-            if (dataFile.exists()) {
-                long diffTime = (new Date().getTime()) - dataFile.lastModified();
-                if ((diffTime < localCacheRenewalInterval) || (localCacheRenewalInterval < 0)) {
+            stamp = memoryCache.stamp(type, key);
+        } else {
+            memoryCache = null;
+        }
+        try {
+            CacheEntryInfo entryInfo = cacheStore.getEntryInfo(type, key);
+            if (entryInfo != null) {
+                if ((!applyRenewalInterval) || isFresh(entryInfo)) {
+                    InputStream in = entryCodecs.decode(cacheStore.openStream(type, key));
+                    if (in == null) {
+                        return null;
+                    }
                     StringBuilder contentBuilder = new StringBuilder();
-                    BufferedReader br = new BufferedReader(new FileReader(dataFile));
+                    BufferedReader br = new BufferedReader(new InputStreamReader(in));
                     String line;
                     while ((line = br.readLine()) != null) {
                         contentBuilder.append(line).append("\n");
                     }
                     br.close();
-                    if (!contentBuilder.toString().isEmpty()) {
-                        return contentBuilder.toString();
+                    String content = contentBuilder.toString();
+                    if (!content.isEmpty()) {
+                        if (memoryCache != null) {
+                            memoryCache.putIfUnmodified(type, key, content, getExpiryTime(entryInfo), stamp);
+                        }
+                        return content;
                     }
                 }
             }
         } catch (Exception e) {
+            Metrics.increment("cache.errors");
             logger.throwing(this.getClass().getName(), "getDataforKey", e);
         }
         return null;
     }
 
-    public boolean putDataForKey(String type, String key, String content) {
+    private long getExpiryTime(CacheEntryInfo entryInfo) {
+        if (entryInfo.getTimeToLive() >= 0) {
+            return entryInfo.getLastModified() + entryInfo.getTimeToLive();
+        }
+        if (localCacheRenewalInterval >= 0) {
+            return entryInfo.getLastModified() + localCacheRenewalInterval;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private boolean isFresh(CacheEntryInfo entryInfo) {
+        return new Date().getTime() < getExpiryTime(entryInfo);
+    }
+
+    /**
+     * Returns the bytes for the given key exactly as they were written, without decoding them as text or copying them
+     * through intermediate buffers. Large entries are returned as a read-only memory-mapped view, so they are served
+     * without being copied onto the heap, unless they were stored with a codec and have to be decoded first.
+     * The heap tier is not consulted.
+     *
+     * @param type the type under which the key is stored
+     * @param key  the key to get the data for
+     * @return a read-only buffer over the stored bytes, or null if the entry is missing or has expired
+     */
+    public ByteBuffer getRawDataForKey(String type, String key) {
+        long start = Metrics.start();
+        ByteBuffer data = null;
         try {
-            File storeDir = new File(localCacheDirectory.getPath()
-                    + File.separator + getEncodedName(type));
-            if ((!storeDir.exists()) || (!storeDir.isDirectory())) {
-                if (!storeDir.mkdirs()) {
-                    return false;
-                }
+            CacheEntryInfo entryInfo = cacheStore.getEntryInfo(type, key);
+            if ((entryInfo != null) && isFresh(entryInfo)) {
+                data = entryCodecs.decode(cacheStore.read(type, key));
+            }
+        } catch (Exception e) {
+            Metrics.increment("cache.errors");
+            logger.throwing(this.getClass().getName(), "getRawDataForKey", e);
+        }
+        if (data != null) {
+            Metrics.increment("cache.bytesRead", data.remaining());
+        }
+        recordGet(start, data != null);
+        return data;
+    }
+
+    /**
+     * Opens a stream over the stored bytes for the given key, for consumers that process large entries incrementally.
+     * The caller has to close the returned stream.
+     *
+     * @param type the type under which the key is stored
+     * @param key  the key to get the data for
+     * @return a stream over the stored bytes, or null if the entry is missing or has expired
+     */
+    public InputStream getDataStreamForKey(String type, String key) {
+        long start = Metrics.start();
+        InputStream in = null;
+        try {
+            CacheEntryInfo entryInfo = cacheStore.getEntryInfo(type, key);
+            if ((entryInfo != null) && isFresh(entryInfo)) {
+                in = entryCodecs.decode(cacheStore.openStream(type, key));
             }
-            File dataFile = new File(storeDir.getPath()
-                    + File.separator + getEncodedName(key) + ".json");
-            if (dataFile.exists()) {
-                if (!dataFile.delete()) {
-                    logger.warning("Failed to delete " + dataFile.getAbsolutePath());
+        } catch (Exception e) {
+            Metrics.increment("cache.errors");
+            logger.throwing(this.getClass().getName(), "getDataStreamForKey", e);
+        }
+        recordGet(start, in != null);
+        return in;
+    }
+
+    /**
+     * Returns the content for the given key decoded with the given charset. Unlike {@link #getDataforKey(String, String)},
+     * the content is returned exactly as it was stored, without line terminators being rewritten.
+     *
+     * @param type    the type under which the key is stored
+     * @param key     the key to get the content for
+     * @param charset the charset the content was stored with
+     * @return the content, or null if the entry is missing or has expired
+     */
+    public String getDataForKey(String type, String key, Charset charset) {
+        ByteBuffer data = getRawDataForKey(type, key);
+        if (data == null) {
+            return null;
+        }
+        return charset.decode(data).toString();
+    }
+
+    /**
+     * Returns the content for the given key, calling the loader and storing its result when the entry is missing
+     * or has expired. Concurrent calls that miss on the same key share a single call to the loader.
+     *
+     * @param type   the type under which the key is stored
+     * @param key    the key to get the content for
+     * @param loader computes the content when it is not available in the cache
+     * @return the cached or freshly loaded content, or null if the loader failed or returned null
+     */
+    public String getOrLoad(String type, String key, Callable<String> loader) {
+        return getOrLoad(type, key, loader, false);
+    }
+
+    /**
+     * Returns the content for the given key, calling the loader and storing its result when the entry is missing
+     * or has expired. Concurrent calls that miss on the same key share a single call to the loader.
+     * With serveStale set, an expired entry is returned immediately while the loader refreshes it in the background.
+     *
+     * @param type       the type under which the key is stored
+     * @param key        the key to get the content for
+     * @param loader     computes the content when it is not available in the cache
+     * @param serveStale whether an expired entry may be returned while it is refreshed in the background
+     * @return the cached or freshly loaded content, or null if the loader failed or returned null
+     */
+    public String getOrLoad(String type, String key, Callable<String> loader, boolean serveStale) {
+        if ((type == null) || (key == null)) {
+            return null;
+        }
+        String content = getDataforKey(type, key);
+        if (content != null) {
+            return content;
+        }
+        if (serveStale) {
+            String staleContent = getData(type, key, false);
+            if (staleContent != null) {
+                LoadTask refresh = new LoadTask(type, key, loader);
+                if (inFlightLoads.putIfAbsent(refresh.cacheKey, refresh) == null) {
+                    try {
+                        getRefreshExecutor().execute(refresh);
+                    } catch (RejectedExecutionException e) {
+                        inFlightLoads.remove(refresh.cacheKey, refresh);
+                        logger.throwing(this.getClass().getName(), "getOrLoad", e);
+                    }
                 }
+                return staleContent;
             }
-            PrintWriter pw = new PrintWriter(dataFile);
-            pw.append(content);
-            pw.close();
+        }
+        LoadTask task = new LoadTask(type, key, loader);
+        LoadTask inFlight = inFlightLoads.putIfAbsent(task.cacheKey, task);
+        if (inFlight == null) {
+            task.run();
+            inFlight = task;
+        }
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.throwing(this.getClass().getName(), "getOrLoad", e);
+        } catch (ExecutionException e) {
+            logger.throwing(this.getClass().getName(), "getOrLoad", e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Stores the content for the given key. Concurrent readers either see the previous content or the new content,
+     * never a missing or partially written entry.
+     *
+     * @param type    the type under which the key is stored
+     * @param key     the key to store the content for
+     * @param content the content to store
+     * @return true if the content was stored
+     */
+    public boolean putDataForKey(String type, String key, String content) {
+        if (content == null) {
+            return false;
+        }
+        return putDataForKey(type, key, content.getBytes());
+    }
+
+    /**
+     * Stores the content for the given key with its own time to live, which applies instead of the renewal interval
+     * of the cache.
+     *
+     * @param type       the type under which the key is stored
+     * @param key        the key to store the content for
+     * @param content    the content to store
+     * @param timeToLive how long the entry stays valid
+     * @param unit       the unit of timeToLive
+     * @return true if the content was stored
+     */
+    public boolean putDataForKey(String type, String key, String content, long timeToLive, TimeUnit unit) {
+        if (content == null) {
+            return false;
+        }
+        return putDataForKey(type, key, content.getBytes(), timeToLive, unit);
+    }
+
+    /**
+     * Stores the content for the given key encoded with the given charset.
+     *
+     * @param type    the type under which the key is stored
+     * @param key     the key to store the content for
+     * @param content the content to store
+     * @param charset the charset to encode the content with
+     * @return true if the content was stored
+     */
+    public boolean putDataForKey(String type, String key, String content, Charset charset) {
+        if (content == null) {
+            return false;
+        }
+        return putDataForKey(type, key, content.getBytes(charset));
+    }
+
+    /**
+     * Stores the given bytes for the key as they are.
+     *
+     * @param type the type under which the key is stored
+     * @param key  the key to store the data for
+     * @param data the data to store
+     * @return true if the data was stored
+     */
+    public boolean putDataForKey(String type, String key, byte[] data) {
+        return storeData(type, key, data, -1);
+    }
+
+    /**
+     * Stores the given bytes for the key as they are, with their own time to live, which applies instead of the
+     * renewal interval of the cache.
+     *
+     * @param type       the type under which the key is stored
+     * @param key        the key to store the data for
+     * @param data       the data to store
+     * @param timeToLive how long the entry stays valid
+     * @param unit       the unit of timeToLive
+     * @return true if the data was stored
+     */
+    public boolean putDataForKey(String type, String key, byte[] data, long timeToLive, TimeUnit unit) {
+        return storeData(type, key, data, Math.max(0, unit.toMillis(timeToLive)));
+    }
+
+    private boolean storeData(String type, String key, byte[] data, long timeToLive) {
+        long start = Metrics.start();
+        try {
+            cacheStore.write(type, key, entryCodecs.encode(data, getCodec(type), compressionThreshold), timeToLive);
+            Metrics.increment("cache.bytesWritten", data.length);
             return true;
         } catch (Exception e) {
+            Metrics.increment("cache.errors");
             logger.throwing(this.getClass().getName(), "putDataForKey", e);
             return false;
+        } finally {
+            invalidateMemoryCache(type, key);
+            Metrics.recordLatency("cache.put", start);
         }
     }
 
     public boolean deleteData(String type, String key) {
         try {
-            File storeDir = new File(localCacheDirectory.getPath()
-                    + File.separator + getEncodedName(type));
-            File dataFile = new File(storeDir.getPath()
-                    + File.separator + getEncodedName(key) + ".json");
-            if (dataFile.exists()) {
-                return dataFile.delete();
-            }
+            return cacheStore.delete(type, key);
         } catch (Exception e) {
+            Metrics.increment("cache.errors");
             logger.throwing(this.getClass().getName(), "deleteData", e);
+        } finally {
+            invalidateMemoryCache(type, key);
         }
         return false;
     }
 
+    private void invalidateMemoryCache(String type, String key) {
+        MemoryCache memoryCache = this.memoryCache;
+        if ((memoryCache != null) && (type != null) && (key != null)) {
+            memoryCache.remove(type, key);
+        }
+    }
+
     public File getLocalCacheBackup() {
-        return zipUtil.zipContent(localCacheDirectory);
+        return zipUtil.zipContent(cacheStore.getDirectory());
     }
 
     public File getLocalCacheBackup(File zipFile) {
-        return zipUtil.zipContent(localCacheDirectory, zipFile);
+        return zipUtil.zipContent(cacheStore.getDirectory(), zipFile);
+    }
+
+    /**
+     * Writes a backup that is read through the cache store instead of zipping its directory, so every entry in it is
+     * a complete version of the entry even while the cache is being written to. Entries are read one after the other,
+     * so the backup is not a point-in-time snapshot of the whole cache. Given a base backup, only the entries that
+     * changed since that backup are written, along with a manifest of every entry.
+     *
+     * @param backupFile the file to write the backup to
+     * @param baseBackup a backup written by this method to write an increment to, or null to write a full backup
+     * @return the backup file, or null if the backup failed
+     * @see #restoreLocalCacheBackup(File...)
+     */
+    public File getLocalCacheBackup(File backupFile, File baseBackup) {
+        try {
+            CacheBackup.write(cacheStore, backupFile, baseBackup);
+            return backupFile;
+        } catch (Exception e) {
+            Metrics.increment("cache.errors");
+            logger.throwing(this.getClass().getName(), "getLocalCacheBackup", e);
+            return null;
+        }
+    }
+
+    /**
+     * Restores the entries of a backup written by {@link #getLocalCacheBackup(File, File)} into this cache. Entries
+     * that have their own time to live keep their original expiry, and those that have already expired are skipped.
+     * Other entries count as written at the time of the restore. Entries that are not in the backup are left alone.
+     * Nothing is restored if the data of any entry is missing or damaged.
+     *
+     * @param backups a full backup followed by the increments based on it, oldest first
+     * @return the number of restored entries, or -1 if the restore failed
+     */
+    public int restoreLocalCacheBackup(File... backups) {
+        return restoreLocalCacheBackup(false, backups);
+    }
+
+    /**
+     * Restores the entries of a backup like {@link #restoreLocalCacheBackup(File...)}, optionally rebuilding the
+     * cache from it.
+     *
+     * @param replaceExisting whether to delete the entries that are not in the backup once it is restored, so that
+     *                        the cache holds exactly the backed up entries that have not expired
+     * @param backups         a full backup followed by the increments based on it, oldest first
+     * @return the number of restored entries, or -1 if the restore failed
+     */
+    public int restoreLocalCacheBackup(boolean replaceExisting, File... backups) {
+        try {
+            return CacheBackup.restore(cacheStore, replaceExisting, backups);
+        } catch (Exception e) {
+            Metrics.increment("cache.errors");
+            logger.throwing(this.getClass().getName(), "restoreLocalCacheBackup", e);
+            return -1;
+        } finally {
+            MemoryCache memoryCache = this.memoryCache;
+            if (memoryCache != null) {
+                memoryCache.clear();
+            }
+        }
+    }
+
+    /**
+     * Limits the data kept for every type. When a type goes over either limit, the janitor deletes its least
+     * recently written entries until it is back within both limits.
+     *
+     * @param maxBytesPerType   the maximum stored bytes per type, or a negative value for no limit
+     * @param maxEntriesPerType the maximum number of entries per type, or a negative value for no limit
+     */
+    public void setQuota(long maxBytesPerType, int maxEntriesPerType) {
+        this.maxBytesPerType = maxBytesPerType;
+        this.maxEntriesPerType = maxEntriesPerType;
+    }
+
+    /**
+     * Starts sweeping the cache periodically on a daemon thread owned by this cache.
+     *
+     * @param periodInMinutes the time between two sweeps
+     * @see #sweep()
+     */
+    public void startJanitor(long periodInMinutes) {
+        startJanitor(periodInMinutes, null);
+    }
+
+    /**
+     * Starts sweeping the cache periodically on the given executor. Any previously started janitor is stopped.
+     *
+     * @param periodInMinutes the time between two sweeps
+     * @param executor        the executor to run the sweeps on, or null to use a daemon thread owned by this cache
+     * @see #sweep()
+     */
+    public void startJanitor(long periodInMinutes, ScheduledExecutorService executor) {
+        synchronized (janitorLock) {
+            stopJanitor();
+            ownsJanitorExecutor = (executor == null);
+            if (ownsJanitorExecutor) {
+                executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "LocalFileCache-janitor");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            janitorExecutor = executor;
+            janitorTask = executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sweep();
+                }
+            }, periodInMinutes, periodInMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    public void stopJanitor() {
+        synchronized (janitorLock) {
+            if (janitorTask != null) {
+                janitorTask.cancel(false);
+                janitorTask = null;
+            }
+            if (ownsJanitorExecutor && (janitorExecutor != null)) {
+                janitorExecutor.shutdown();
+            }
+            janitorExecutor = null;
+            ownsJanitorExecutor = false;
+        }
+    }
+
+    /**
+     * Deletes every entry that has outlived its time to live or the renewal interval, then deletes the least recently written entries
+     * of every type that is over its quota. Entries that are rewritten while the sweep runs are left alone.
+     *
+     * @return the number of bytes reclaimed by this sweep
+     */
+    public long sweep() {
+        long start = Metrics.start();
+        long reclaimed = 0;
+        try {
+            for (String type : cacheStore.getTypes()) {
+                List<SweepCandidate> candidates = new ArrayList<>();
+                long typeBytes = 0;
+                for (String key : cacheStore.getKeys(type)) {
+                    CacheEntryInfo entryInfo = cacheStore.getEntryInfo(type, key);
+                    if (entryInfo == null) {
+                        continue;
+                    }
+                    if (!isFresh(entryInfo)) {
+                        if (sweepEntry(type, key, entryInfo)) {
+                            reclaimed += entryInfo.getSize();
+                            expiredEntryCount.incrementAndGet();
+                            Metrics.increment("cache.expired");
+                        }
+                    } else {
+                        candidates.add(new SweepCandidate(key, entryInfo));
+                        typeBytes += entryInfo.getSize();
+                    }
+                }
+                long maxBytes = maxBytesPerType;
+                int maxEntries = maxEntriesPerType;
+                int typeEntries = candidates.size();
+                if (((maxBytes >= 0) && (typeBytes > maxBytes)) || ((maxEntries >= 0) && (typeEntries > maxEntries))) {
+                    Collections.sort(candidates);
+                    Iterator<SweepCandidate> oldest = candidates.iterator();
+                    while (oldest.hasNext() && (((maxBytes >= 0) && (typeBytes > maxBytes))
+                            || ((maxEntries >= 0) && (typeEntries > maxEntries)))) {
+                        SweepCandidate candidate = oldest.next();
+                        if (sweepEntry(type, candidate.key, candidate.entryInfo)) {
+                            reclaimed += candidate.entryInfo.getSize();
+                            evictedEntryCount.incrementAndGet();
+                            Metrics.increment("cache.evicted");
+                        }
+                        typeBytes -= candidate.entryInfo.getSize();
+                        typeEntries--;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Metrics.increment("cache.errors");
+            logger.throwing(this.getClass().getName(), "sweep", e);
+        }
+        reclaimedBytes.addAndGet(reclaimed);
+        Metrics.increment("cache.reclaimedBytes", reclaimed);
+        Metrics.recordLatency("cache.sweep", start);
+        return reclaimed;
+    }
+
+    private boolean sweepEntry(String type, String key, CacheEntryInfo entryInfo) throws IOException {
+        try {
+            return cacheStore.deleteIfUnchanged(type, key, entryInfo);
+        } finally {
+            invalidateMemoryCache(type, key);
+        }
+    }
+
+    /**
+     * @return the total bytes deleted by the janitor
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    /**
+     * @return the number of entries the janitor deleted because they had expired
+     */
+    public long getExpiredEntryCount() {
+        return expiredEntryCount.get();
+    }
+
+    /**
+     * @return the number of entries the janitor deleted to keep a type within its quota
+     */
+    public long getEvictedEntryCount() {
+        return evictedEntryCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        stopJanitor();
+        cacheStore.close();
+    }
+
+    private final class LoadTask extends FutureTask<String> {
+
+        private final CacheKey cacheKey;
+
+        private LoadTask(final String type, final String key, final Callable<String> loader) {
+            super(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    String content = getDataforKey(type, key);
+                    if (content != null) {
+                        return content;
+                    }
+                    content = loader.call();
+                    if ((content != null) && (!putDataForKey(type, key, content))) {
+                        logger.log(Level.WARNING, "Failed to store the loaded content for " + type + "/" + key);
+                    }
+                    return content;
+                }
+            });
+            this.cacheKey = new CacheKey(type, key);
+        }
+
+        @Override
+        protected void done() {
+            inFlightLoads.remove(cacheKey, this);
+        }
+    }
+
+    private static final class SweepCandidate implements Comparable<SweepCandidate> {
+
+        private final String key;
+        private final CacheEntryInfo entryInfo;
+
+        private SweepCandidate(String key, CacheEntryInfo entryInfo) {
+            this.key = key;
+            this.entryInfo = entryInfo;
+        }
+
+        @Override
+        public int compareTo(SweepCandidate other) {
+            return Long.compare(entryInfo.getLastModified(), other.entryInfo.getLastModified());
+        }
     }
 
 }
@@ -0,0 +1,232 @@
+package me.shib.java.lib.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, least-recently-used heap tier that can be placed in front of a {@link LocalFileCache}.
+ * The tier is bounded by entry count, by an estimate of the retained bytes, or both. Entries are split across
+ * segments that are locked and evicted independently, so the recency order is kept per segment rather than globally.
+ */
+public final class MemoryCache {
+
+    private static final long entryOverhead = 64;
+    private static final int maxSegments = 16;
+    private static final int minEntriesPerSegment = 16;
+    private static final long minBytesPerSegment = 65536;
+    private static final int versionStripes = 256;
+
+    private final Segment[] segments;
+    private final AtomicLongArray versions;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong evictionCount;
+
+    /**
+     * Creates a heap tier bounded by the number of entries.
+     *
+     * @param maxEntries the maximum number of entries to retain
+     */
+    public MemoryCache(int maxEntries) {
+        this(maxEntries, -1);
+    }
+
+    /**
+     * Creates a heap tier bounded by the number of entries and the estimated size of the retained content.
+     *
+     * @param maxEntries the maximum number of entries to retain, or a negative value for no entry limit
+     * @param maxBytes   the maximum estimated bytes to retain, or a negative value for no size limit
+     */
+    public MemoryCache(int maxEntries, long maxBytes) {
+        if ((maxEntries < 0) && (maxBytes < 0)) {
+            throw new IllegalArgumentException("Either maxEntries or maxBytes has to be bounded");
+        }
+        int segmentCount = getSegmentCount(maxEntries, maxBytes);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            int segmentEntries = (maxEntries < 0) ? -1 : ((maxEntries / segmentCount) + ((i < (maxEntries % segmentCount)) ? 1 : 0));
+            long segmentBytes = (maxBytes < 0) ? -1 : ((maxBytes / segmentCount) + ((i < (maxBytes % segmentCount)) ? 1 : 0));
+            segments[i] = new Segment(segmentEntries, segmentBytes);
+        }
+        this.versions = new AtomicLongArray(versionStripes);
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.evictionCount = new AtomicLong();
+    }
+
+    private static int getSegmentCount(int maxEntries, long maxBytes) {
+        int segmentCount = maxSegments;
+        while ((segmentCount > 1) && (((maxEntries >= 0) && (maxEntries < (segmentCount * minEntriesPerSegment)))
+                || ((maxBytes >= 0) && (maxBytes < (segmentCount * minBytesPerSegment))))) {
+            segmentCount >>= 1;
+        }
+        return segmentCount;
+    }
+
+    private static long estimateSize(String content) {
+        return entryOverhead + (content.length() * 2L);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private Segment getSegment(CacheKey cacheKey) {
+        return segments[spread(cacheKey.hashCode()) & (segments.length - 1)];
+    }
+
+    private static int getVersionIndex(CacheKey cacheKey) {
+        return (spread(cacheKey.hashCode()) >>> 4) & (versionStripes - 1);
+    }
+
+    /**
+     * Returns the version of the key, to be passed to {@link #putIfUnmodified} after the content has been read from
+     * disk. The version only changes when this key, or another key sharing its stripe, is removed.
+     */
+    long stamp(String type, String key) {
+        return versions.get(getVersionIndex(new CacheKey(type, key)));
+    }
+
+    String get(String type, String key) {
+        CacheKey cacheKey = new CacheKey(type, key);
+        Segment segment = getSegment(cacheKey);
+        synchronized (segment) {
+            CacheEntry entry = segment.entries.get(cacheKey);
+            if (entry != null) {
+                if (System.currentTimeMillis() < entry.expiryTime) {
+                    hitCount.incrementAndGet();
+                    return entry.content;
+                }
+                segment.removeEntry(cacheKey);
+            }
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    void putIfUnmodified(String type, String key, String content, long expiryTime, long stamp) {
+        CacheKey cacheKey = new CacheKey(type, key);
+        Segment segment = getSegment(cacheKey);
+        synchronized (segment) {
+            if (versions.get(getVersionIndex(cacheKey)) == stamp) {
+                segment.store(cacheKey, content, expiryTime);
+            }
+        }
+    }
+
+    void remove(String type, String key) {
+        CacheKey cacheKey = new CacheKey(type, key);
+        Segment segment = getSegment(cacheKey);
+        synchronized (segment) {
+            versions.incrementAndGet(getVersionIndex(cacheKey));
+            segment.removeEntry(cacheKey);
+        }
+    }
+
+    /**
+     * Removes every entry from the heap tier. The on-disk data is left untouched.
+     */
+    public void clear() {
+        for (int i = 0; i < versionStripes; i++) {
+            versions.incrementAndGet(i);
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+                segment.currentBytes = 0;
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public long getSizeInBytes() {
+        long sizeInBytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                sizeInBytes += segment.currentBytes;
+            }
+        }
+        return sizeInBytes;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    private final class Segment {
+        private final int maxEntries;
+        private final long maxBytes;
+        private final LinkedHashMap<CacheKey, CacheEntry> entries;
+        private long currentBytes;
+
+        private Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+            this.entries = new LinkedHashMap<>(16, 0.75f, true);
+            this.currentBytes = 0;
+        }
+
+        private void store(CacheKey cacheKey, String content, long expiryTime) {
+            long size = estimateSize(content);
+            if ((maxBytes >= 0) && (size > maxBytes)) {
+                removeEntry(cacheKey);
+                return;
+            }
+            CacheEntry previous = entries.put(cacheKey, new CacheEntry(content, expiryTime, size));
+            if (previous != null) {
+                currentBytes -= previous.size;
+            }
+            currentBytes += size;
+            evict();
+        }
+
+        private void removeEntry(CacheKey cacheKey) {
+            CacheEntry removed = entries.remove(cacheKey);
+            if (removed != null) {
+                currentBytes -= removed.size;
+            }
+        }
+
+        private void evict() {
+            Iterator<Map.Entry<CacheKey, CacheEntry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext() && (((maxEntries >= 0) && (entries.size() > maxEntries))
+                    || ((maxBytes >= 0) && (currentBytes > maxBytes)))) {
+                currentBytes -= iterator.next().getValue().size;
+                iterator.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static final class CacheEntry {
+        private final String content;
+        private final long expiryTime;
+        private final long size;
+
+        private CacheEntry(String content, long expiryTime, long size) {
+            this.content = content;
+            this.expiryTime = expiryTime;
+            this.size = size;
+        }
+    }
+}
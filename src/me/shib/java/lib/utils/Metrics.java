@@ -0,0 +1,76 @@
+package me.shib.java.lib.utils;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the {@link MetricsRecorder} that {@link LocalFileCache}, {@link ZipUtil}, {@link FileUtils} and
+ * {@link FileDownloader} report to. Nothing is recorded, and no time is measured, until a recorder is set.
+ * <p>
+ * Latencies are recorded as "cache.get", "cache.put", "cache.sweep", "zip.create", "zip.extract",
+ * "checksum.calculate" and "download". Counters are "cache.hit", "cache.miss", "cache.bytesRead",
+ * "cache.bytesWritten", "cache.expired", "cache.evicted", "cache.reclaimedBytes", "zip.entries",
+ * "zip.extractedEntries", "zip.extractedBytes", "checksum.bytes", "download.bytes", "download.completed",
+ * "download.notModified", "download.cancelled" and "download.failed", and "errors" prefixed with the area of the
+ * failing operation, such as "cache.errors".
+ */
+public final class Metrics {
+
+    private static Logger logger = Logger.getLogger(Metrics.class.getName());
+
+    private static volatile MetricsRecorder recorder;
+
+    private Metrics() {
+    }
+
+    /**
+     * @param recorder the recorder to report to, or null to stop recording
+     */
+    public static void setRecorder(MetricsRecorder recorder) {
+        Metrics.recorder = recorder;
+    }
+
+    public static MetricsRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * @return the time to pass to {@link #recordLatency(String, long)}, or 0 if nothing is being recorded
+     */
+    static long start() {
+        return (recorder == null) ? 0 : System.nanoTime();
+    }
+
+    /**
+     * @param name  the name of the operation
+     * @param start the time returned by {@link #start()} when the operation started
+     */
+    static void recordLatency(String name, long start) {
+        MetricsRecorder metricsRecorder = recorder;
+        if ((metricsRecorder == null) || (start == 0)) {
+            return;
+        }
+        try {
+            metricsRecorder.recordLatency(name, System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to record " + name, e);
+        }
+    }
+
+    static void increment(String name) {
+        increment(name, 1);
+    }
+
+    static void increment(String name, long delta) {
+        MetricsRecorder metricsRecorder = recorder;
+        if (metricsRecorder == null) {
+            return;
+        }
+        try {
+            metricsRecorder.incrementCounter(name, delta);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to record " + name, e);
+        }
+    }
+
+}
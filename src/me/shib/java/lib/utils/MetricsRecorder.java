@@ -0,0 +1,22 @@
+package me.shib.java.lib.utils;
+
+/**
+ * Receives the counters and operation latencies of this library, see {@link Metrics} for the names that are
+ * recorded. Calls come from the threads doing the operations, so implementations have to be safe for concurrent use
+ * and return quickly.
+ */
+public interface MetricsRecorder {
+
+    /**
+     * @param name  the name of the counter
+     * @param delta the amount to add to the counter
+     */
+    void incrementCounter(String name, long delta);
+
+    /**
+     * @param name  the name of the operation
+     * @param nanos how long the operation took in nanoseconds
+     */
+    void recordLatency(String name, long nanos);
+
+}
@@ -0,0 +1,450 @@
+package me.shib.java.lib.utils;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads a file in parallel segments with HTTP range requests, writing every segment straight to its place in a
+ * pre-sized file. The progress of every segment is checkpointed to a state file next to the download, so that an
+ * interrupted download can be resumed as long as the server still reports the same ETag or Last-Modified time.
+ */
+final class RangeDownload {
+
+    private static final String stateFileSuffix = ".download";
+    private static final int stateMagic = 0x52414e47;
+    private static final long minSegmentSize = 1024 * 1024;
+    private static final long checkpointInterval = 4 * 1024 * 1024;
+    private static final int bufferSize = 64 * 1024;
+
+    private static Logger logger = Logger.getLogger(RangeDownload.class.getName());
+
+    private final URL url;
+    private final File file;
+    private final File stateFile;
+    private final int segmentCount;
+    private final boolean resumable;
+    private final Listener listener;
+    private final ExecutorService executor;
+    private HttpURLConnection fallbackConnection;
+    private String validator;
+    private long length;
+    private long[] starts;
+    private long[] ends;
+    private long[] positions;
+
+    /**
+     * @param url          the URL to download
+     * @param file         the file to download to
+     * @param segmentCount the maximum number of segments to download in parallel
+     * @param resumable    whether to keep the partial file and its state when the download does not finish, and to
+     *                     resume from them
+     * @param listener     receives the progress of the download
+     * @param executor     the executor to download the segments on, or null to start threads for this download only
+     */
+    RangeDownload(URL url, File file, int segmentCount, boolean resumable, Listener listener, ExecutorService executor) {
+        this.url = url;
+        this.file = file;
+        this.stateFile = getStateFile(file);
+        this.segmentCount = Math.max(1, segmentCount);
+        this.resumable = resumable;
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    /**
+     * @param file the file being downloaded to
+     * @return the file that the state of a resumable download to the given file is kept in
+     */
+    static File getStateFile(File file) {
+        return new File(file.getPath() + stateFileSuffix);
+    }
+
+    /**
+     * @return the response to the probe when {@link #download()} returned false because the server answered it with
+     * the whole file, so that its body can be read instead of asking for the file again, or null
+     */
+    HttpURLConnection getFallbackConnection() {
+        return fallbackConnection;
+    }
+
+    /**
+     * @return false if the server does not support range requests, in which case nothing was written
+     * @throws IOException if the download failed
+     */
+    boolean download() throws IOException {
+        if (!probe()) {
+            return false;
+        }
+        if (!(resumable && loadState())) {
+            createSegments();
+        }
+        for (int attempt = 0; ; attempt++) {
+            try {
+                downloadSegments();
+                if (listener.isCancelled()) {
+                    discardOrKeep();
+                } else {
+                    Files.deleteIfExists(stateFile.toPath());
+                }
+                return true;
+            } catch (ResourceChangedException e) {
+                if (attempt > 0) {
+                    discardOrKeep();
+                    throw e;
+                }
+                logger.log(Level.INFO, url + " changed on the server, restarting the download");
+                listener.bytesWritten(-getDownloadedBytes());
+                if (!probe()) {
+                    Files.deleteIfExists(stateFile.toPath());
+                    return false;
+                }
+                createSegments();
+            } catch (IOException e) {
+                discardOrKeep();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Asks for the first byte to find out whether the server supports range requests, the full length and a
+     * validator to send with If-Range. A server that answers with the whole file instead is left connected as the
+     * fallback connection.
+     */
+    private boolean probe() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestProperty("Range", "bytes=0-0");
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                fallbackConnection = connection;
+                return false;
+            }
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                return false;
+            }
+            long total = parseTotalLength(connection.getHeaderField("Content-Range"));
+            if (total <= 0) {
+                return false;
+            }
+            length = total;
+            listener.lengthKnown(total);
+            String eTag = connection.getHeaderField("ETag");
+            if ((eTag != null) && (!eTag.startsWith("W/"))) {
+                validator = eTag;
+            } else {
+                validator = connection.getHeaderField("Last-Modified");
+            }
+            return true;
+        } finally {
+            if (connection != fallbackConnection) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static long parseTotalLength(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseStart(String contentRange) {
+        if ((contentRange == null) || (!contentRange.startsWith("bytes "))) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void createSegments() throws IOException {
+        int count = (int) Math.max(1, Math.min(segmentCount, length / minSegmentSize));
+        starts = new long[count];
+        ends = new long[count];
+        positions = new long[count];
+        long segmentSize = length / count;
+        for (int i = 0; i < count; i++) {
+            starts[i] = i * segmentSize;
+            positions[i] = starts[i];
+            ends[i] = (i == (count - 1)) ? length : ((i + 1) * segmentSize);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+        if (resumable) {
+            saveState(null);
+        }
+    }
+
+    private boolean loadState() {
+        if ((!stateFile.exists()) || (file.length() != length)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+            if ((in.readInt() != stateMagic) || (!in.readUTF().equals(String.valueOf(validator)))
+                    || (in.readLong() != length)) {
+                return false;
+            }
+            int count = in.readInt();
+            long[] stateStarts = new long[count];
+            long[] stateEnds = new long[count];
+            long[] statePositions = new long[count];
+            for (int i = 0; i < count; i++) {
+                stateStarts[i] = in.readLong();
+                statePositions[i] = in.readLong();
+                stateEnds[i] = in.readLong();
+            }
+            starts = stateStarts;
+            ends = stateEnds;
+            positions = statePositions;
+            long downloaded = getDownloadedBytes();
+            listener.bytesResumed(downloaded);
+            logger.log(Level.INFO, "Resuming " + url + " with " + downloaded + " of " + length + " bytes present");
+            return true;
+        } catch (IOException e) {
+            logger.throwing(this.getClass().getName(), "loadState", e);
+            return false;
+        }
+    }
+
+    /**
+     * Checkpoints the positions of the segments. The downloaded bytes are forced to the disk first, so that a
+     * checkpoint never covers bytes that a crash could still lose.
+     *
+     * @param channel the channel the segments are being written through, or null if it is not open
+     */
+    private void saveState(FileChannel channel) throws IOException {
+        if (validator == null) {
+            return;
+        }
+        long[] savedPositions;
+        synchronized (this) {
+            savedPositions = positions.clone();
+        }
+        if (channel != null) {
+            channel.force(false);
+        } else if (file.exists()) {
+            try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                fileChannel.force(false);
+            }
+        }
+        synchronized (this) {
+            File tempFile = new File(stateFile.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(stateMagic);
+                out.writeUTF(validator);
+                out.writeLong(length);
+                out.writeInt(ends.length);
+                for (int i = 0; i < ends.length; i++) {
+                    out.writeLong(starts[i]);
+                    out.writeLong(savedPositions[i]);
+                    out.writeLong(ends[i]);
+                }
+            }
+            try {
+                Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private synchronized long getDownloadedBytes() {
+        long downloaded = 0;
+        for (int i = 0; i < positions.length; i++) {
+            downloaded += positions[i] - starts[i];
+        }
+        return downloaded;
+    }
+
+    private void discardOrKeep() throws IOException {
+        if (resumable && (validator != null)) {
+            saveState(null);
+        } else {
+            Files.deleteIfExists(stateFile.toPath());
+            if (file.exists() && file.delete()) {
+                logger.log(Level.INFO, "Deleted the incomplete file " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    private void downloadSegments() throws IOException {
+        List<Integer> remaining = new ArrayList<>();
+        for (int i = 0; i < ends.length; i++) {
+            if (positions[i] < ends[i]) {
+                remaining.add(i);
+            }
+        }
+        if (remaining.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = this.executor;
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(remaining.size(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "FileDownloader-segment");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        List<Future<Void>> futures = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            for (final int segment : remaining) {
+                final FileChannel target = channel;
+                try {
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            downloadSegment(segment, target);
+                            return null;
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    throw new IOException("Could not start downloading a segment of " + url, e);
+                }
+            }
+            IOException failure = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = new InterruptedIOException("Interrupted while downloading " + url);
+                    break;
+                } catch (CancellationException ignored) {
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = (e.getCause() instanceof IOException) ? (IOException) e.getCause()
+                                : new IOException(e.getCause());
+                        for (Future<Void> other : futures) {
+                            other.cancel(true);
+                        }
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            if (executor != this.executor) {
+                executor.shutdownNow();
+            } else {
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    private void downloadSegment(int segment, FileChannel channel) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestProperty("Range", "bytes=" + positions[segment] + "-" + (ends[segment] - 1));
+            if (validator != null) {
+                connection.setRequestProperty("If-Range", validator);
+            }
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                throw new ResourceChangedException(url + " no longer matches " + validator);
+            }
+            if ((responseCode != HttpURLConnection.HTTP_PARTIAL)
+                    || (parseStart(connection.getHeaderField("Content-Range")) != positions[segment])) {
+                throw new IOException("Unexpected response " + responseCode + " for a range of " + url);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+            long sinceCheckpoint = 0;
+            try (ReadableByteChannel in = Channels.newChannel(connection.getInputStream())) {
+                while ((positions[segment] < ends[segment]) && (!listener.isCancelled())) {
+                    buffer.limit((int) Math.min(buffer.capacity(), ends[segment] - positions[segment]));
+                    if (in.read(buffer) < 0) {
+                        throw new EOFException(url + " ended " + (ends[segment] - positions[segment])
+                                + " bytes before the end of its range");
+                    }
+                    buffer.flip();
+                    int count = buffer.remaining();
+                    long position = positions[segment];
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                    synchronized (this) {
+                        positions[segment] = position;
+                    }
+                    listener.bytesWritten(count);
+                    sinceCheckpoint += count;
+                    if (resumable && (sinceCheckpoint >= checkpointInterval)) {
+                        saveState(channel);
+                        sinceCheckpoint = 0;
+                    }
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Receives the progress of a range download from the segment threads.
+     */
+    interface Listener {
+
+        /**
+         * @param length the full length of the file being downloaded
+         */
+        void lengthKnown(long length);
+
+        /**
+         * @param bytes the number of bytes written since the last call, negative when a download starts over
+         */
+        void bytesWritten(long bytes);
+
+        /**
+         * @param bytes the number of bytes already present from an earlier attempt when a download is resumed
+         */
+        void bytesResumed(long bytes);
+
+        boolean isCancelled();
+    }
+
+    private static final class ResourceChangedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private ResourceChangedException(String message) {
+            super(message);
+        }
+    }
+
+}
@@ -0,0 +1,605 @@
+package me.shib.java.lib.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Stores entries as records appended to a small number of segment files instead of one file per key.
+ * The location of the latest record of every key is held in memory and rebuilt from the segments on startup.
+ * Segments that are mostly made of overwritten or deleted records are compacted in the background.
+ */
+public final class SegmentLogCacheStore implements CacheStore {
+
+    private static final long defaultMaxSegmentSize = 64L * 1024 * 1024;
+    private static final long defaultCompactionIntervalInMinutes = 10;
+    private static final long mappedReadThreshold = 256 * 1024;
+    private static final double compactionGarbageRatio = 0.5;
+    private static final int segmentMagic = 0x53454731;
+    private static final int segmentHeaderLength = 5;
+    private static final byte flagCompacted = 1;
+    private static final byte opPut = 1;
+    private static final byte opDelete = 2;
+    private static final String segmentPrefix = "segment-";
+    private static final String segmentSuffix = ".log";
+    private static final String compactionSuffix = ".compacting";
+
+    private static Logger logger = Logger.getLogger(SegmentLogCacheStore.class.getName());
+
+    private final File directory;
+    private final long maxSegmentSize;
+    private final ConcurrentHashMap<CacheKey, Location> index;
+    private final ConcurrentHashMap<String, Set<String>> typeKeys;
+    private final ConcurrentSkipListMap<Long, Segment> segments;
+    private final Object appendLock;
+    private final Object compactionLock;
+    private final ReentrantReadWriteLock segmentSwapLock;
+    private final ScheduledExecutorService compactionExecutor;
+    private Segment activeSegment;
+    private volatile boolean closed;
+
+    public SegmentLogCacheStore(File directory) throws IOException {
+        this(directory, defaultMaxSegmentSize, defaultCompactionIntervalInMinutes);
+    }
+
+    /**
+     * @param directory                          the directory to keep the segment files in
+     * @param maxSegmentSize                     the size in bytes after which a new segment is started
+     * @param compactionIntervalInMinutes        how often to check whether compaction is due, or a negative value
+     *                                           to only compact when {@link #compact()} is called
+     * @throws IOException if the existing segments could not be recovered
+     */
+    public SegmentLogCacheStore(File directory, long maxSegmentSize, long compactionIntervalInMinutes) throws IOException {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.index = new ConcurrentHashMap<>();
+        this.typeKeys = new ConcurrentHashMap<>();
+        this.segments = new ConcurrentSkipListMap<>();
+        this.appendLock = new Object();
+        this.compactionLock = new Object();
+        this.segmentSwapLock = new ReentrantReadWriteLock();
+        if ((!directory.exists()) || (!directory.isDirectory())) {
+            if (!directory.mkdirs()) {
+                throw new IOException(directory.getAbsolutePath() + " was not created.");
+            }
+        }
+        recover();
+        if (compactionIntervalInMinutes > 0) {
+            compactionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SegmentLogCacheStore-compaction");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            compactionExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (getGarbageRatio() >= compactionGarbageRatio) {
+                            compact();
+                        }
+                    } catch (Exception e) {
+                        logger.throwing(SegmentLogCacheStore.class.getName(), "compact", e);
+                    }
+                }
+            }, compactionIntervalInMinutes, compactionIntervalInMinutes, TimeUnit.MINUTES);
+        } else {
+            compactionExecutor = null;
+        }
+    }
+
+    private File getSegmentFile(long segmentId) {
+        return new File(directory, segmentPrefix + segmentId + segmentSuffix);
+    }
+
+    private void recover() throws IOException {
+        TreeMap<Long, File> segmentFiles = new TreeMap<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(segmentPrefix) && name.endsWith(compactionSuffix)) {
+                    if (!file.delete()) {
+                        logger.log(Level.WARNING, "Failed to delete " + file.getAbsolutePath());
+                    }
+                } else if (name.startsWith(segmentPrefix) && name.endsWith(segmentSuffix)) {
+                    try {
+                        segmentFiles.put(Long.parseLong(name.substring(segmentPrefix.length(),
+                                name.length() - segmentSuffix.length())), file);
+                    } catch (NumberFormatException e) {
+                        logger.log(Level.WARNING, "Ignoring unknown file " + file.getAbsolutePath());
+                    }
+                }
+            }
+        }
+        for (Long segmentId : segmentFiles.descendingKeySet()) {
+            if (isCompactedSegment(segmentFiles.get(segmentId))) {
+                Iterator<Map.Entry<Long, File>> superseded = segmentFiles.headMap(segmentId).entrySet().iterator();
+                while (superseded.hasNext()) {
+                    File file = superseded.next().getValue();
+                    if (!file.delete()) {
+                        throw new IOException("Failed to delete superseded segment " + file.getAbsolutePath());
+                    }
+                    superseded.remove();
+                }
+                break;
+            }
+        }
+        for (Map.Entry<Long, File> segmentFile : segmentFiles.entrySet()) {
+            Segment segment = openSegment(segmentFile.getKey(), segmentFile.getValue(), false);
+            segments.put(segment.id, segment);
+            replay(segment);
+        }
+        if (segments.isEmpty()) {
+            activeSegment = openSegment(1, getSegmentFile(1), false);
+            segments.put(activeSegment.id, activeSegment);
+        } else {
+            activeSegment = segments.lastEntry().getValue();
+            if (activeSegment.size.get() >= maxSegmentSize) {
+                rollSegment();
+            }
+        }
+    }
+
+    private static boolean isCompactedSegment(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return (in.readInt() == segmentMagic) && (in.readByte() == flagCompacted);
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private static Segment openSegment(long segmentId, File file, boolean compacted) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < segmentHeaderLength) {
+            ByteBuffer header = ByteBuffer.allocate(segmentHeaderLength);
+            header.putInt(segmentMagic).put(compacted ? flagCompacted : 0).flip();
+            channel.truncate(0);
+            writeFully(channel, header, 0);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(segmentHeaderLength);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != segmentMagic) {
+                channel.close();
+                throw new IOException(file.getAbsolutePath() + " is not a cache segment");
+            }
+        }
+        return new Segment(segmentId, file, channel, channel.size());
+    }
+
+    private void replay(Segment segment) throws IOException {
+        long position = segmentHeaderLength;
+        long size = segment.size.get();
+        InputStream channelStream = new BufferedInputStream(new FileInputStream(segment.file), 64 * 1024);
+        try (DataInputStream in = new DataInputStream(channelStream)) {
+            if (in.skip(segmentHeaderLength) != segmentHeaderLength) {
+                throw new EOFException();
+            }
+            while (position < size) {
+                int bodyLength = in.readInt();
+                if ((bodyLength <= 0) || ((position + bodyLength + 8) > size)) {
+                    break;
+                }
+                byte[] body = new byte[bodyLength];
+                in.readFully(body);
+                int checksum = in.readInt();
+                CRC32 crc = new CRC32();
+                crc.update(body, 0, body.length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                ByteArrayInputStream bodyStream = new ByteArrayInputStream(body);
+                DataInputStream bodyIn = new DataInputStream(bodyStream);
+                byte op = bodyIn.readByte();
+                long timestamp = bodyIn.readLong();
+                long timeToLive = bodyIn.readLong();
+                String type = bodyIn.readUTF();
+                String key = bodyIn.readUTF();
+                int dataLength = bodyIn.readInt();
+                int dataStart = bodyLength - bodyStream.available();
+                int recordLength = bodyLength + 8;
+                if (op == opPut) {
+                    CRC32 dataCrc = new CRC32();
+                    dataCrc.update(body, dataStart, dataLength);
+                    CacheEntryInfo entryInfo = new CacheEntryInfo(timestamp, dataLength, timeToLive, dataCrc.getValue());
+                    applyPut(new CacheKey(type, key), new Location(segment, position + 4 + dataStart, recordLength, entryInfo));
+                } else {
+                    applyDelete(new CacheKey(type, key));
+                    segment.garbage.addAndGet(recordLength);
+                }
+                position += recordLength;
+            }
+        } catch (EOFException ignored) {
+        }
+        if (position < size) {
+            logger.log(Level.WARNING, "Truncating " + (size - position) + " unreadable bytes at the end of "
+                    + segment.file.getAbsolutePath());
+            segment.channel.truncate(position);
+            segment.size.set(position);
+        }
+    }
+
+    private void applyPut(CacheKey cacheKey, Location location) {
+        Location previous = index.put(cacheKey, location);
+        if (previous != null) {
+            previous.segment.garbage.addAndGet(previous.recordLength);
+        }
+        Set<String> keys = typeKeys.get(cacheKey.getType());
+        if (keys == null) {
+            Set<String> newKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            keys = typeKeys.putIfAbsent(cacheKey.getType(), newKeys);
+            if (keys == null) {
+                keys = newKeys;
+            }
+        }
+        keys.add(cacheKey.getKey());
+    }
+
+    private boolean applyDelete(CacheKey cacheKey) {
+        Location previous = index.remove(cacheKey);
+        if (previous != null) {
+            previous.segment.garbage.addAndGet(previous.recordLength);
+            Set<String> keys = typeKeys.get(cacheKey.getType());
+            if (keys != null) {
+                keys.remove(cacheKey.getKey());
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void rollSegment() throws IOException {
+        long segmentId = activeSegment.id + 1;
+        activeSegment.channel.force(false);
+        activeSegment = openSegment(segmentId, getSegmentFile(segmentId), false);
+        segments.put(segmentId, activeSegment);
+    }
+
+    private static byte[] encodeRecord(byte op, long timestamp, long timeToLive, String type, String key,
+                                       byte[] data) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(64 + ((data == null) ? 0 : data.length));
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(0);
+        out.writeByte(op);
+        out.writeLong(timestamp);
+        out.writeLong(timeToLive);
+        out.writeUTF(type);
+        out.writeUTF(key);
+        if (data == null) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        out.writeInt(0);
+        out.flush();
+        ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+        int bodyLength = buffer.capacity() - 8;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, bodyLength);
+        buffer.putInt(0, bodyLength);
+        buffer.putInt(buffer.capacity() - 4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    private Location append(Segment segment, byte[] record, CacheEntryInfo entryInfo) throws IOException {
+        long position = segment.size.get();
+        writeFully(segment.channel, ByteBuffer.wrap(record), position);
+        segment.size.addAndGet(record.length);
+        return new Location(segment, position + record.length - 4 - entryInfo.getSize(), record.length, entryInfo);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The cache store has been closed");
+        }
+    }
+
+    @Override
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public String[] getTypes() {
+        ArrayList<String> types = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : typeKeys.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                types.add(entry.getKey());
+            }
+        }
+        return types.toArray(new String[types.size()]);
+    }
+
+    @Override
+    public String[] getKeys(String type) {
+        Set<String> keys = typeKeys.get(type);
+        if (keys == null) {
+            return new String[0];
+        }
+        return keys.toArray(new String[0]);
+    }
+
+    @Override
+    public CacheEntryInfo getEntryInfo(String type, String key) {
+        Location location = index.get(new CacheKey(type, key));
+        if (location == null) {
+            return null;
+        }
+        return location.entryInfo;
+    }
+
+    @Override
+    public InputStream openStream(String type, String key) throws IOException {
+        ensureOpen();
+        CacheKey cacheKey = new CacheKey(type, key);
+        segmentSwapLock.readLock().lock();
+        try {
+            Location location = index.get(cacheKey);
+            if (location == null) {
+                return null;
+            }
+            ByteBuffer data = ByteBuffer.allocate(location.dataLength);
+            readFully(location.segment.channel, data, location.dataOffset);
+            return new ByteArrayInputStream(data.array());
+        } finally {
+            segmentSwapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Entries of at least 256 KB are returned as a read-only memory-mapped view of their region in the segment file,
+     * smaller entries are read into a heap buffer.
+     */
+    @Override
+    public ByteBuffer read(String type, String key) throws IOException {
+        ensureOpen();
+        CacheKey cacheKey = new CacheKey(type, key);
+        segmentSwapLock.readLock().lock();
+        try {
+            Location location = index.get(cacheKey);
+            if (location == null) {
+                return null;
+            }
+            if (location.dataLength >= mappedReadThreshold) {
+                return location.segment.channel.map(FileChannel.MapMode.READ_ONLY, location.dataOffset, location.dataLength);
+            }
+            ByteBuffer data = ByteBuffer.allocate(location.dataLength);
+            readFully(location.segment.channel, data, location.dataOffset);
+            data.flip();
+            return data.asReadOnlyBuffer();
+        } finally {
+            segmentSwapLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void write(String type, String key, byte[] data, long timeToLive) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        CacheEntryInfo entryInfo = new CacheEntryInfo(System.currentTimeMillis(), data.length, timeToLive, crc.getValue());
+        byte[] record = encodeRecord(opPut, entryInfo.getLastModified(), timeToLive, type, key, data);
+        synchronized (appendLock) {
+            ensureOpen();
+            if ((activeSegment.size.get() > segmentHeaderLength)
+                    && ((activeSegment.size.get() + record.length) > maxSegmentSize)) {
+                rollSegment();
+            }
+            applyPut(new CacheKey(type, key), append(activeSegment, record, entryInfo));
+        }
+    }
+
+    @Override
+    public boolean delete(String type, String key) throws IOException {
+        return delete(type, key, null);
+    }
+
+    @Override
+    public boolean deleteIfUnchanged(String type, String key, CacheEntryInfo expected) throws IOException {
+        return delete(type, key, expected);
+    }
+
+    private boolean delete(String type, String key, CacheEntryInfo expected) throws IOException {
+        CacheKey cacheKey = new CacheKey(type, key);
+        synchronized (appendLock) {
+            ensureOpen();
+            Location location = index.get(cacheKey);
+            if ((location == null) || ((expected != null)
+                    && (!expected.isSameVersion(location.entryInfo)))) {
+                return false;
+            }
+            long timestamp = System.currentTimeMillis();
+            byte[] record = encodeRecord(opDelete, timestamp, -1, type, key, null);
+            Location tombstone = append(activeSegment, record, new CacheEntryInfo(timestamp, 0));
+            activeSegment.garbage.addAndGet(tombstone.recordLength);
+            return applyDelete(cacheKey);
+        }
+    }
+
+    /**
+     * @return the share of the segment bytes that belong to overwritten or deleted records
+     */
+    public double getGarbageRatio() {
+        long total = 0;
+        long garbage = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.size.get() - segmentHeaderLength;
+            garbage += segment.garbage.get();
+        }
+        if (total <= 0) {
+            return 0;
+        }
+        return ((double) garbage) / total;
+    }
+
+    /**
+     * Rewrites the live records of every segment but the one being appended to into a single segment,
+     * and removes the old segments. Readers and writers are only held up while the new segment is swapped in.
+     *
+     * @throws IOException if the compacted segment could not be written
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            long targetId;
+            synchronized (appendLock) {
+                ensureOpen();
+                if (activeSegment.size.get() > segmentHeaderLength) {
+                    rollSegment();
+                }
+                targetId = activeSegment.id - 1;
+            }
+            NavigableMap<Long, Segment> sealed = segments.headMap(targetId, true);
+            if (sealed.isEmpty()) {
+                return;
+            }
+            File compactionFile = new File(directory, segmentPrefix + targetId + compactionSuffix);
+            Segment compacted = openSegment(targetId, compactionFile, true);
+            Map<CacheKey, Location[]> moved = new HashMap<>();
+            try {
+                for (Map.Entry<CacheKey, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    if (location.segment.id > targetId) {
+                        continue;
+                    }
+                    ByteBuffer data = ByteBuffer.allocate(location.dataLength);
+                    segmentSwapLock.readLock().lock();
+                    try {
+                        readFully(location.segment.channel, data, location.dataOffset);
+                    } finally {
+                        segmentSwapLock.readLock().unlock();
+                    }
+                    CacheKey cacheKey = entry.getKey();
+                    byte[] record = encodeRecord(opPut, location.entryInfo.getLastModified(),
+                            location.entryInfo.getTimeToLive(), cacheKey.getType(), cacheKey.getKey(), data.array());
+                    moved.put(cacheKey, new Location[]{location, append(compacted, record, location.entryInfo)});
+                }
+                compacted.channel.force(true);
+                compacted.channel.close();
+            } catch (IOException e) {
+                compacted.channel.close();
+                if (!compactionFile.delete()) {
+                    logger.log(Level.WARNING, "Failed to delete " + compactionFile.getAbsolutePath());
+                }
+                throw e;
+            }
+            List<Segment> replaced = new ArrayList<>(sealed.values());
+            segmentSwapLock.writeLock().lock();
+            try {
+                File targetFile = getSegmentFile(targetId);
+                try {
+                    Files.move(compactionFile.toPath(), targetFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(compactionFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                Segment target = openSegment(targetId, targetFile, true);
+                for (Map.Entry<CacheKey, Location[]> entry : moved.entrySet()) {
+                    Location[] locations = entry.getValue();
+                    Location relocated = new Location(target, locations[1].dataOffset, locations[1].recordLength,
+                            locations[1].entryInfo);
+                    if (!index.replace(entry.getKey(), locations[0], relocated)) {
+                        target.garbage.addAndGet(relocated.recordLength);
+                    }
+                }
+                for (Segment segment : replaced) {
+                    segments.remove(segment.id);
+                    segment.channel.close();
+                }
+                segments.put(targetId, target);
+            } finally {
+                segmentSwapLock.writeLock().unlock();
+            }
+            for (Segment segment : replaced) {
+                if ((segment.id != targetId) && (!segment.file.delete())) {
+                    logger.log(Level.WARNING, "Failed to delete " + segment.file.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdownNow();
+        }
+        synchronized (compactionLock) {
+            synchronized (appendLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                segmentSwapLock.writeLock().lock();
+                try {
+                    activeSegment.channel.force(false);
+                    for (Segment segment : segments.values()) {
+                        segment.channel.close();
+                    }
+                } finally {
+                    segmentSwapLock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final File file;
+        private final FileChannel channel;
+        private final AtomicLong size;
+        private final AtomicLong garbage;
+
+        private Segment(long id, File file, FileChannel channel, long size) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.size = new AtomicLong(size);
+            this.garbage = new AtomicLong();
+        }
+    }
+
+    private static final class Location {
+        private final Segment segment;
+        private final long dataOffset;
+        private final int dataLength;
+        private final int recordLength;
+        private final CacheEntryInfo entryInfo;
+
+        private Location(Segment segment, long dataOffset, int recordLength, CacheEntryInfo entryInfo) {
+            this.segment = segment;
+            this.dataOffset = dataOffset;
+            this.dataLength = (int) entryInfo.getSize();
+            this.recordLength = recordLength;
+            this.entryInfo = entryInfo;
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package me.shib.java.lib.utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps counters and {@link LatencyHistogram}s in memory, to be read or exported by the application.
+ */
+public final class SimpleMetricsRecorder implements MetricsRecorder {
+
+    private final ConcurrentHashMap<String, AtomicLong> counters;
+    private final ConcurrentHashMap<String, LatencyHistogram> latencies;
+
+    public SimpleMetricsRecorder() {
+        this.counters = new ConcurrentHashMap<>();
+        this.latencies = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void incrementCounter(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    @Override
+    public void recordLatency(String name, long nanos) {
+        LatencyHistogram histogram = latencies.get(name);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = latencies.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * @param name the name of the counter
+     * @return the value of the counter, or 0 if it was never incremented
+     */
+    public long getCounter(String name) {
+        AtomicLong counter = counters.get(name);
+        return (counter == null) ? 0 : counter.get();
+    }
+
+    /**
+     * @param name the name of the operation
+     * @return the latencies of the operation, or null if none were recorded
+     */
+    public LatencyHistogram getLatencies(String name) {
+        return latencies.get(name);
+    }
+
+    /**
+     * @return a snapshot of every counter, sorted by name
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            snapshot.put(counter.getKey(), counter.getValue().get());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return every operation with recorded latencies, sorted by name
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        return new TreeMap<>(latencies);
+    }
+
+    /**
+     * Drops every counter and latency recorded so far.
+     */
+    public void reset() {
+        counters.clear();
+        latencies.clear();
+    }
+
+}
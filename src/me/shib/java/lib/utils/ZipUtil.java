@@ -1,19 +1,81 @@
 package me.shib.java.lib.utils;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 public final class ZipUtil {
 
+    private static final int maxBufferedEntrySize = 1024 * 1024;
+    private static final long maxPipelineBufferedBytes = 32 * 1024 * 1024;
+    private static final String spillFilePrefix = ".zip-spill";
+    private static final String spillFileSuffix = ".tmp";
+
     private static Logger logger = Logger.getLogger(ZipUtil.class.getName());
 
+    private volatile Executor executor;
+    private volatile int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private volatile String[] storedExtensions = new String[0];
+    private volatile File spillDirectory;
+
+    /**
+     * Sets the executor that entries are compressed on. Entries are still written in the same order as without one.
+     *
+     * @param executor the executor to compress entries on in parallel, or null to compress them on the calling thread
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param compressionLevel a level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION},
+     *                         {@link Deflater#DEFAULT_COMPRESSION}, or {@link Deflater#NO_COMPRESSION} to store every
+     *                         entry without compression
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (((compressionLevel < Deflater.NO_COMPRESSION) || (compressionLevel > Deflater.BEST_COMPRESSION))
+                && (compressionLevel != Deflater.DEFAULT_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Stores files with the given extensions without compressing them, since already compressed formats such as
+     * zip, gz or jpg do not get any smaller. Entries that would grow by being compressed are stored in any case.
+     *
+     * @param extensions the file extensions, such as "gz" or ".jpg", matched ignoring case
+     */
+    public void setStoredExtensions(String... extensions) {
+        String[] storedExtensions = new String[extensions.length];
+        for (int i = 0; i < extensions.length; i++) {
+            String extension = extensions[i].toLowerCase(Locale.ENGLISH);
+            storedExtensions[i] = extension.startsWith(".") ? extension : ("." + extension);
+        }
+        this.storedExtensions = storedExtensions;
+    }
+
+    /**
+     * Sets the directory that entries too large to be compressed on the heap are spilled to until they are written.
+     * By default they are spilled next to the archive when zipping to a file, and to the default temporary directory
+     * otherwise.
+     *
+     * @param spillDirectory the directory to spill entries to, or null for the default
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
     public File zipContent(File sourceContent) {
         return zipContent(sourceContent, true);
     }
@@ -33,64 +95,390 @@ public final class ZipUtil {
         if (zipFile == null) {
             zipFile = new File(sourceContent.getName() + ".zip");
         }
-        List<String> fileList = new ArrayList<>();
-        generateFileList(fileList, sourceContent, sourceContent, includeSourceDir);
-        byte[] buffer = new byte[1024];
-        try {
-            FileOutputStream fos = new FileOutputStream(zipFile);
-            ZipOutputStream zos = new ZipOutputStream(fos);
-            for (String file : fileList) {
-                ZipEntry ze = new ZipEntry(file);
-                zos.putNextEntry(ze);
-                FileInputStream in;
-                if (sourceContent.isDirectory()) {
-                    if (includeSourceDir) {
-                        in = new FileInputStream(sourceContent.getAbsoluteFile().getParentFile().getAbsolutePath() + File.separator + file);
-                    } else {
-                        in = new FileInputStream(sourceContent.getAbsolutePath() + File.separator + file);
-                    }
-                } else {
-                    in = new FileInputStream(sourceContent);
-                }
-                int len;
-                while ((len = in.read(buffer)) > 0) {
-                    zos.write(buffer, 0, len);
-                }
-                in.close();
-            }
-            zos.closeEntry();
-            zos.close();
+        try (OutputStream out = new FileOutputStream(zipFile)) {
+            // The archive may be written inside the source, and must not zip itself
+            writeContent(sourceContent, out, includeSourceDir, null, null, zipFile.getAbsoluteFile().toPath());
             return zipFile;
         } catch (IOException e) {
+            Metrics.increment("zip.errors");
             logger.throwing(this.getClass().getName(), "zipContent", e);
             return null;
         }
     }
 
-    private void generateFileList(List<String> fileList, File sourceContent, File node, boolean includeSourceDir) {
-        if (node.isFile()) {
-            if (sourceContent.isDirectory()) {
-                fileList.add(generateZipEntry(sourceContent, node, includeSourceDir));
+    /**
+     * Streams a ZIP archive of the source to the given stream while the source is being walked, so that memory use
+     * does not grow with the size of the files. Only the central directory, a few dozen bytes per entry, is kept until
+     * the end. The stream is flushed but not closed.
+     *
+     * @param sourceContent    the file or directory to zip
+     * @param out              the stream to write the archive to
+     * @param includeSourceDir whether entry names start with the name of the source directory
+     * @param include          matched against the entry name of every file to decide if it is included, or null to
+     *                         include every file
+     * @param exclude          matched against the entry name of every file and directory to leave it out, or null to
+     *                         leave nothing out
+     * @return true if the archive was written
+     */
+    public boolean zipContent(File sourceContent, OutputStream out, boolean includeSourceDir, PathMatcher include,
+                              PathMatcher exclude) {
+        if (!sourceContent.exists()) {
+            return false;
+        }
+        try {
+            writeContent(sourceContent, out, includeSourceDir, include, exclude, null);
+            return true;
+        } catch (IOException e) {
+            Metrics.increment("zip.errors");
+            logger.throwing(this.getClass().getName(), "zipContent", e);
+            return false;
+        }
+    }
+
+    /**
+     * Streams a ZIP archive of the source to the given blocking channel, which is left open.
+     *
+     * @see #zipContent(File, OutputStream, boolean, PathMatcher, PathMatcher)
+     */
+    public boolean zipContent(File sourceContent, WritableByteChannel channel, boolean includeSourceDir,
+                              PathMatcher include, PathMatcher exclude) {
+        return zipContent(sourceContent, Channels.newOutputStream(channel), includeSourceDir, include, exclude);
+    }
+
+    private void writeContent(File sourceContent, OutputStream out, boolean includeSourceDir, final PathMatcher include,
+                              final PathMatcher exclude, final Path targetPath) throws IOException {
+        long start = Metrics.start();
+        final Path sourcePath = sourceContent.getAbsoluteFile().toPath();
+        Path parentPath = sourcePath.getParent();
+        final Path basePath;
+        if ((sourceContent.isDirectory() && (!includeSourceDir)) || (parentPath == null)) {
+            basePath = sourcePath;
+        } else {
+            basePath = parentPath;
+        }
+        File entrySpillDirectory = spillDirectory;
+        if ((entrySpillDirectory == null) && (targetPath != null)) {
+            entrySpillDirectory = targetPath.getParent().toFile();
+        }
+        final Path spillPath = (entrySpillDirectory == null) ? null : entrySpillDirectory.getAbsoluteFile().toPath();
+        BufferedOutputStream bufferedOut = new BufferedOutputStream(out, 65536);
+        try (final EntryPipeline pipeline = new EntryPipeline(new ZipWriter(bufferedOut), executor, compressionLevel,
+                storedExtensions, entrySpillDirectory)) {
+            Files.walkFileTree(sourcePath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                            if ((exclude != null) && (!dir.equals(basePath)) && exclude.matches(basePath.relativize(dir))) {
+                                return FileVisitResult.SKIP_SUBTREE;
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                            if (attrs.isRegularFile() && (!isSameFile(file, targetPath)) && (!isSpillFile(file, spillPath))) {
+                                Path relativePath = basePath.relativize(file);
+                                if (((include == null) || include.matches(relativePath))
+                                        && ((exclude == null) || (!exclude.matches(relativePath)))) {
+                                    pipeline.add(toEntryName(relativePath), file.toFile());
+                                    Metrics.increment("zip.entries");
+                                }
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                            if (e instanceof FileSystemLoopException) {
+                                logger.log(Level.WARNING, "Skipping " + file + " since it links back to a parent directory");
+                                return FileVisitResult.CONTINUE;
+                            }
+                            throw e;
+                        }
+                    });
+            pipeline.finish();
+        }
+        bufferedOut.flush();
+        Metrics.recordLatency("zip.create", start);
+    }
+
+    private static boolean isSameFile(Path file, Path targetPath) throws IOException {
+        return (targetPath != null) && file.getFileName().equals(targetPath.getFileName())
+                && Files.isSameFile(file, targetPath);
+    }
+
+    private static boolean isSpillFile(Path file, Path spillPath) {
+        String fileName = file.getFileName().toString();
+        return (spillPath != null) && fileName.startsWith(spillFilePrefix) && fileName.endsWith(spillFileSuffix)
+                && spillPath.equals(file.getParent());
+    }
+
+    private static String toEntryName(Path relativePath) {
+        StringBuilder name = new StringBuilder();
+        for (Path part : relativePath) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(part.toString());
+        }
+        return name.toString();
+    }
+
+    /**
+     * Compresses entries in the order they are added, on the executor if there is one, and writes them out in the
+     * same order. A bounded number of compressed entries is held at any time, and together they hold no more than
+     * {@link #maxPipelineBufferedBytes} on the heap.
+     */
+    private static final class EntryPipeline implements Closeable {
+
+        private final ZipWriter writer;
+        private final Executor executor;
+        private final int window;
+        private final int compressionLevel;
+        private final String[] storedExtensions;
+        private final File spillDirectory;
+        private final Deque<PendingEntry> pending;
+        private final AtomicBoolean aborted;
+        private long bufferedBytes;
+
+        private EntryPipeline(ZipWriter writer, Executor executor, int compressionLevel, String[] storedExtensions,
+                              File spillDirectory) {
+            this.writer = writer;
+            this.executor = executor;
+            this.window = (executor == null) ? 1 : Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+            this.compressionLevel = compressionLevel;
+            this.storedExtensions = storedExtensions;
+            this.spillDirectory = spillDirectory;
+            this.pending = new ArrayDeque<>();
+            this.aborted = new AtomicBoolean();
+            this.bufferedBytes = 0;
+        }
+
+        private void add(String name, File file) throws IOException {
+            long size = file.length();
+            // Entries kept on the heap hold their data and at most as much compressed data
+            long entryBufferedBytes = (size <= maxBufferedEntrySize) ? (2 * size) : 0;
+            while ((!pending.isEmpty()) && ((pending.size() >= window)
+                    || ((bufferedBytes + entryBufferedBytes) > maxPipelineBufferedBytes))) {
+                writeNext();
+            }
+            PendingEntry entry = new PendingEntry(new EntryCompressor(name, file, compressionLevel, isStored(name),
+                    spillDirectory, aborted), entryBufferedBytes);
+            pending.add(entry);
+            bufferedBytes += entryBufferedBytes;
+            if (executor == null) {
+                entry.run();
             } else {
-                fileList.add(generateZipEntry(null, node, includeSourceDir));
+                try {
+                    executor.execute(entry);
+                } catch (RejectedExecutionException e) {
+                    entry.run();
+                }
+            }
+        }
+
+        private void writeNext() throws IOException {
+            PendingEntry entry = pending.poll();
+            bufferedBytes -= entry.bufferedBytes;
+            writer.write(await(entry));
+        }
+
+        private void finish() throws IOException {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            writer.finish();
+        }
+
+        private static ZipWriter.Entry await(FutureTask<ZipWriter.Entry> task) throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while compressing entries");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
             }
         }
-        if (node.isDirectory()) {
-            String[] subNote = node.list();
-            for (String filename : subNote) {
-                generateFileList(fileList, sourceContent, new File(node, filename), includeSourceDir);
+
+        private boolean isStored(String name) {
+            if (compressionLevel == Deflater.NO_COMPRESSION) {
+                return true;
+            }
+            String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+            for (String extension : storedExtensions) {
+                if (lowerCaseName.endsWith(extension)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Cancels the entries that were not written yet. Entries that are being compressed are told to stop and waited
+         * for, so that whatever they spilled to disk is deleted before this returns.
+         */
+        @Override
+        public void close() {
+            aborted.set(true);
+            boolean interrupted = false;
+            PendingEntry entry;
+            while ((entry = pending.poll()) != null) {
+                if (entry.cancelIfNotStarted()) {
+                    continue;
+                }
+                while (true) {
+                    try {
+                        entry.get().release();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException | CancellationException e) {
+                        break;
+                    }
+                }
+            }
+            bufferedBytes = 0;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
         }
     }
 
-    private String generateZipEntry(File sourceContent, File file, boolean includeSourceDir) {
-        if (sourceContent != null) {
-            if (includeSourceDir) {
-                return file.getAbsolutePath().substring(sourceContent.getAbsoluteFile().getParentFile().getAbsolutePath().length() + 1, file.getAbsolutePath().length());
-            } else {
-                return file.getAbsolutePath().substring(sourceContent.getAbsolutePath().length() + 1, file.getAbsolutePath().length());
+    private static final class PendingEntry extends FutureTask<ZipWriter.Entry> {
+
+        private final long bufferedBytes;
+        private final AtomicBoolean claimed;
+
+        private PendingEntry(EntryCompressor compressor, long bufferedBytes) {
+            super(compressor);
+            this.bufferedBytes = bufferedBytes;
+            this.claimed = new AtomicBoolean();
+        }
+
+        @Override
+        public void run() {
+            if (claimed.compareAndSet(false, true)) {
+                super.run();
+            }
+        }
+
+        /**
+         * @return true if the entry was cancelled before it started, false if it is running or already done
+         */
+        private boolean cancelIfNotStarted() {
+            if (claimed.compareAndSet(false, true)) {
+                cancel(false);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class EntryCompressor implements Callable<ZipWriter.Entry> {
+
+        private final String name;
+        private final File file;
+        private final int compressionLevel;
+        private final boolean stored;
+        private final File spillDirectory;
+        private final AtomicBoolean aborted;
+
+        private EntryCompressor(String name, File file, int compressionLevel, boolean stored, File spillDirectory,
+                                AtomicBoolean aborted) {
+            this.name = name;
+            this.file = file;
+            this.compressionLevel = compressionLevel;
+            this.stored = stored;
+            this.spillDirectory = spillDirectory;
+            this.aborted = aborted;
+        }
+
+        private void checkAborted() throws IOException {
+            if (aborted.get()) {
+                throw new InterruptedIOException("The archive was abandoned");
+            }
+        }
+
+        @Override
+        public ZipWriter.Entry call() throws IOException {
+            checkAborted();
+            long size = file.length();
+            if (size <= maxBufferedEntrySize) {
+                return compressOnHeap();
+            }
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[65536];
+            if (stored) {
+                try (InputStream in = new FileInputStream(file)) {
+                    int len;
+                    while ((len = in.read(buffer)) > 0) {
+                        checkAborted();
+                        crc.update(buffer, 0, len);
+                    }
+                }
+                return new ZipWriter.Entry(name, file.lastModified(), ZipWriter.stored, crc.getValue(), size, size,
+                        null, file, false);
+            }
+            File spillFile = File.createTempFile(spillFilePrefix, spillFileSuffix, spillDirectory);
+            Deflater deflater = new Deflater(compressionLevel, true);
+            try {
+                try (InputStream in = new FileInputStream(file);
+                     OutputStream out = new DeflaterOutputStream(new FileOutputStream(spillFile), deflater, 65536)) {
+                    int len;
+                    while ((len = in.read(buffer)) > 0) {
+                        checkAborted();
+                        crc.update(buffer, 0, len);
+                        out.write(buffer, 0, len);
+                    }
+                }
+                return new ZipWriter.Entry(name, file.lastModified(), ZipWriter.deflated, crc.getValue(),
+                        deflater.getBytesRead(), deflater.getBytesWritten(), null, spillFile, true);
+            } catch (IOException e) {
+                spillFile.delete();
+                throw e;
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private ZipWriter.Entry compressOnHeap() throws IOException {
+            byte[] data;
+            try (InputStream in = new FileInputStream(file)) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.max(32, file.length()));
+                byte[] buffer = new byte[65536];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    content.write(buffer, 0, len);
+                }
+                data = content.toByteArray();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            long time = file.lastModified();
+            if (!stored) {
+                Deflater deflater = new Deflater(compressionLevel, true);
+                try {
+                    deflater.setInput(data);
+                    deflater.finish();
+                    byte[] compressed = new byte[Math.max(64, data.length + 64)];
+                    int compressedSize = 0;
+                    while ((!deflater.finished()) && (compressedSize < data.length)) {
+                        compressedSize += deflater.deflate(compressed, compressedSize, compressed.length - compressedSize);
+                    }
+                    if (deflater.finished() && (compressedSize < data.length)) {
+                        return new ZipWriter.Entry(name, time, ZipWriter.deflated, crc.getValue(), data.length,
+                                compressedSize, compressed, null, false);
+                    }
+                } finally {
+                    deflater.end();
+                }
             }
+            return new ZipWriter.Entry(name, time, ZipWriter.stored, crc.getValue(), data.length, data.length, data,
+                    null, false);
         }
-        return file.getName();
     }
 }
\ No newline at end of file
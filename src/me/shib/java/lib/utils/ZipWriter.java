@@ -0,0 +1,295 @@
+package me.shib.java.lib.utils;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a ZIP archive from entries that were already compressed, so that entries can be compressed independently,
+ * in parallel, and still be written out in a fixed order. ZIP64 records are written only when sizes, offsets or the
+ * number of entries need them.
+ */
+final class ZipWriter {
+
+    static final int stored = 0;
+    static final int deflated = 8;
+
+    private static final int localHeaderSignature = 0x04034b50;
+    private static final int centralHeaderSignature = 0x02014b50;
+    private static final int endSignature = 0x06054b50;
+    private static final int zip64EndSignature = 0x06064b50;
+    private static final int zip64LocatorSignature = 0x07064b50;
+    private static final int utf8Flag = 0x0800;
+    private static final int defaultVersion = 20;
+    private static final int zip64Version = 45;
+    private static final long zip64Magic = 0xFFFFFFFFL;
+    private static final int zip64MagicCount = 0xFFFF;
+    private static final Charset nameCharset = Charset.forName("UTF-8");
+
+    private final OutputStream out;
+    private final List<Entry> entries;
+    private final byte[] scratch;
+    private long offset;
+
+    ZipWriter(OutputStream out) {
+        this.out = out;
+        this.entries = new ArrayList<>();
+        this.scratch = new byte[8];
+        this.offset = 0;
+    }
+
+    private static long toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980L) << 25) | ((calendar.get(Calendar.MONTH) + 1L) << 21)
+                | ((long) calendar.get(Calendar.DAY_OF_MONTH) << 16) | ((long) calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | ((long) calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    private void writeShort(int value) throws IOException {
+        scratch[0] = (byte) value;
+        scratch[1] = (byte) (value >>> 8);
+        out.write(scratch, 0, 2);
+        offset += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        scratch[0] = (byte) value;
+        scratch[1] = (byte) (value >>> 8);
+        scratch[2] = (byte) (value >>> 16);
+        scratch[3] = (byte) (value >>> 24);
+        out.write(scratch, 0, 4);
+        offset += 4;
+    }
+
+    private void writeLong(long value) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            scratch[i] = (byte) (value >>> (8 * i));
+        }
+        out.write(scratch, 0, 8);
+        offset += 8;
+    }
+
+    private void writeBytes(byte[] bytes, int off, int len) throws IOException {
+        out.write(bytes, off, len);
+        offset += len;
+    }
+
+    /**
+     * Writes the entry and releases its compressed data.
+     *
+     * @param entry the compressed entry to write
+     * @throws IOException if the entry could not be written
+     */
+    void write(Entry entry) throws IOException {
+        try {
+            entry.localHeaderOffset = offset;
+            boolean zip64 = (entry.size >= zip64Magic) || (entry.compressedSize >= zip64Magic);
+            writeInt(localHeaderSignature);
+            writeShort(zip64 ? zip64Version : defaultVersion);
+            writeShort(utf8Flag);
+            writeShort(entry.method);
+            writeInt(entry.dosTime);
+            writeInt(entry.crc);
+            writeInt(zip64 ? zip64Magic : entry.compressedSize);
+            writeInt(zip64 ? zip64Magic : entry.size);
+            writeShort(entry.name.length);
+            writeShort(zip64 ? 20 : 0);
+            writeBytes(entry.name, 0, entry.name.length);
+            if (zip64) {
+                writeShort(1);
+                writeShort(16);
+                writeLong(entry.size);
+                writeLong(entry.compressedSize);
+            }
+            if (entry.data != null) {
+                writeBytes(entry.data, 0, (int) entry.compressedSize);
+            } else if (entry.deleteDataFile) {
+                writeFile(entry.dataFile, entry.compressedSize);
+            } else {
+                writeSourceFile(entry.dataFile, entry.compressedSize, entry.crc);
+            }
+            entries.add(entry);
+        } finally {
+            entry.release();
+        }
+    }
+
+    private void writeFile(File file, long length) throws IOException {
+        out.flush();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = 0;
+            while (position < length) {
+                long transferred = channel.transferTo(position, length - position, target);
+                if (transferred <= 0) {
+                    throw new EOFException(file.getAbsolutePath() + " ended before " + length + " bytes");
+                }
+                position += transferred;
+            }
+        }
+        offset += length;
+    }
+
+    /**
+     * Copies a file that is stored as it is, checking that it still has the size and CRC32 that were written to the
+     * local header, since the file may have changed after they were computed.
+     */
+    private void writeSourceFile(File file, long length, long crc) throws IOException {
+        CRC32 actualCrc = new CRC32();
+        byte[] buffer = new byte[65536];
+        long position = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int count;
+            while ((position < length) && ((count = in.read(buffer, 0, (int) Math.min(buffer.length, length - position))) > 0)) {
+                actualCrc.update(buffer, 0, count);
+                writeBytes(buffer, 0, count);
+                position += count;
+            }
+            if ((position != length) || (in.read() >= 0) || (actualCrc.getValue() != crc)) {
+                throw new IOException(file.getAbsolutePath() + " changed while it was being zipped");
+            }
+        }
+    }
+
+    /**
+     * Writes the central directory. The underlying stream is flushed but not closed.
+     *
+     * @throws IOException if the central directory could not be written
+     */
+    void finish() throws IOException {
+        long centralDirectoryOffset = offset;
+        for (Entry entry : entries) {
+            boolean sizeOverflow = entry.size >= zip64Magic;
+            boolean compressedSizeOverflow = entry.compressedSize >= zip64Magic;
+            boolean offsetOverflow = entry.localHeaderOffset >= zip64Magic;
+            int extraLength = (sizeOverflow ? 8 : 0) + (compressedSizeOverflow ? 8 : 0) + (offsetOverflow ? 8 : 0);
+            boolean zip64 = extraLength > 0;
+            writeInt(centralHeaderSignature);
+            writeShort(zip64Version);
+            writeShort(zip64 ? zip64Version : defaultVersion);
+            writeShort(utf8Flag);
+            writeShort(entry.method);
+            writeInt(entry.dosTime);
+            writeInt(entry.crc);
+            writeInt(compressedSizeOverflow ? zip64Magic : entry.compressedSize);
+            writeInt(sizeOverflow ? zip64Magic : entry.size);
+            writeShort(entry.name.length);
+            writeShort(zip64 ? (extraLength + 4) : 0);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt(offsetOverflow ? zip64Magic : entry.localHeaderOffset);
+            writeBytes(entry.name, 0, entry.name.length);
+            if (zip64) {
+                writeShort(1);
+                writeShort(extraLength);
+                if (sizeOverflow) {
+                    writeLong(entry.size);
+                }
+                if (compressedSizeOverflow) {
+                    writeLong(entry.compressedSize);
+                }
+                if (offsetOverflow) {
+                    writeLong(entry.localHeaderOffset);
+                }
+            }
+        }
+        long centralDirectorySize = offset - centralDirectoryOffset;
+        int count = entries.size();
+        boolean zip64 = (count >= zip64MagicCount) || (centralDirectorySize >= zip64Magic)
+                || (centralDirectoryOffset >= zip64Magic);
+        if (zip64) {
+            long zip64EndOffset = offset;
+            writeInt(zip64EndSignature);
+            writeLong(44);
+            writeShort(zip64Version);
+            writeShort(zip64Version);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(centralDirectorySize);
+            writeLong(centralDirectoryOffset);
+            writeInt(zip64LocatorSignature);
+            writeInt(0);
+            writeLong(zip64EndOffset);
+            writeInt(1);
+        }
+        writeInt(endSignature);
+        writeShort(0);
+        writeShort(0);
+        writeShort(zip64 ? zip64MagicCount : count);
+        writeShort(zip64 ? zip64MagicCount : count);
+        writeInt(zip64 ? zip64Magic : centralDirectorySize);
+        writeInt(zip64 ? zip64Magic : centralDirectoryOffset);
+        writeShort(0);
+        out.flush();
+    }
+
+    /**
+     * A compressed entry, holding its data either on the heap or in a file.
+     */
+    static final class Entry {
+
+        private final byte[] name;
+        private final long dosTime;
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private byte[] data;
+        private File dataFile;
+        private final boolean deleteDataFile;
+        private long localHeaderOffset;
+
+        /**
+         * @param name           the name of the entry
+         * @param time           the modification time of the entry in milliseconds since the epoch
+         * @param method         {@link #stored} or {@link #deflated}
+         * @param crc            the CRC32 of the uncompressed data
+         * @param size           the size of the uncompressed data
+         * @param compressedSize the size of the data
+         * @param data           the data, or null if it is held in dataFile
+         * @param dataFile       the file holding the data, if data is null
+         * @param deleteDataFile whether dataFile is a temporary file to delete once the entry is written, rather than
+         *                       the stored source file, which is checked against the size and CRC32 as it is written
+         */
+        Entry(String name, long time, int method, long crc, long size, long compressedSize, byte[] data,
+              File dataFile, boolean deleteDataFile) {
+            this.name = name.getBytes(nameCharset);
+            this.dosTime = toDosTime(time);
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.data = data;
+            this.dataFile = dataFile;
+            this.deleteDataFile = deleteDataFile;
+        }
+
+        /**
+         * Drops the data of the entry, deleting it if it was spilled to a temporary file.
+         */
+        void release() {
+            data = null;
+            if (deleteDataFile && (dataFile != null)) {
+                dataFile.delete();
+            }
+            dataFile = null;
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package me.shib.java.lib.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class CacheBackupTest {
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private LocalFileCache newCache(String name) throws IOException {
+        return new LocalFileCache(temporaryFolder.newFolder(name).getPath(), true);
+    }
+
+    private static int countDataEntries(File backup) throws IOException {
+        int count = 0;
+        try (ZipFile zip = new ZipFile(backup)) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (entry.getName().startsWith("data/")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void restoresIncrementalBackups() throws IOException {
+        LocalFileCache cache = newCache("cache");
+        for (int i = 0; i < 10; i++) {
+            cache.putDataForKey("type", "key" + i, "value" + i, utf8);
+        }
+        File full = cache.getLocalCacheBackup(new File(temporaryFolder.getRoot(), "full.zip"), null);
+        assertNotNull(full);
+        assertEquals(10, countDataEntries(full));
+
+        cache.putDataForKey("type", "key1", "changed", utf8);
+        cache.deleteData("type", "key2");
+        cache.putDataForKey("other", "added", "new", utf8);
+        File increment = cache.getLocalCacheBackup(new File(temporaryFolder.getRoot(), "increment.zip"), full);
+        assertNotNull(increment);
+        // Only the changed and the added entry are written again
+        assertEquals(2, countDataEntries(increment));
+
+        LocalFileCache restored = newCache("restored");
+        assertEquals(10, restored.restoreLocalCacheBackup(full, increment));
+        assertEquals("changed", restored.getDataForKey("type", "key1", utf8));
+        assertNull(restored.getDataForKey("type", "key2", utf8));
+        assertEquals("value9", restored.getDataForKey("type", "key9", utf8));
+        assertEquals("new", restored.getDataForKey("other", "added", utf8));
+    }
+
+    @Test
+    public void replacesExistingEntriesOnlyWhenAsked() throws IOException {
+        LocalFileCache cache = newCache("cache");
+        cache.putDataForKey("type", "backedUp", "value", utf8);
+        File backup = cache.getLocalCacheBackup(new File(temporaryFolder.getRoot(), "backup.zip"), null);
+
+        LocalFileCache restored = newCache("restored");
+        restored.putDataForKey("type", "existing", "value", utf8);
+        assertEquals(1, restored.restoreLocalCacheBackup(backup));
+        assertEquals("value", restored.getDataForKey("type", "existing", utf8));
+
+        assertEquals(1, restored.restoreLocalCacheBackup(true, backup));
+        assertNull(restored.getDataForKey("type", "existing", utf8));
+        assertEquals("value", restored.getDataForKey("type", "backedUp", utf8));
+    }
+
+    @Test
+    public void leavesStoreUntouchedWhenBackupIsDamaged() throws IOException {
+        LocalFileCache cache = newCache("cache");
+        for (int i = 0; i < 5; i++) {
+            cache.putDataForKey("type", "key" + i, "value" + i, utf8);
+        }
+        File backup = cache.getLocalCacheBackup(new File(temporaryFolder.getRoot(), "backup.zip"), null);
+        File damaged = new File(temporaryFolder.getRoot(), "damaged.zip");
+        // Drops the data of the last entry while keeping it in the manifest
+        List<String> dataEntries = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(backup));
+             ZipOutputStream out = new ZipOutputStream(new FileOutputStream(damaged))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.getName().startsWith("data/")) {
+                    dataEntries.add(entry.getName());
+                    if (dataEntries.size() == 5) {
+                        continue;
+                    }
+                }
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                copy(in, out);
+                out.closeEntry();
+            }
+        }
+
+        LocalFileCache restored = newCache("restored");
+        restored.putDataForKey("type", "existing", "value", utf8);
+        assertEquals(-1, restored.restoreLocalCacheBackup(true, damaged));
+        assertArrayEquals(new String[]{"existing"}, restored.getKeys("type"));
+        for (String name : temporaryFolder.getRoot().list()) {
+            assertFalse(name.startsWith(".restore"));
+        }
+    }
+
+    private static void copy(InputStream in, ZipOutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            out.write(buffer, 0, count);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package me.shib.java.lib.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class CachingDownloaderTest {
+
+    private static final int contentSize = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private TestHttpServer server;
+    private byte[] content;
+    private CachingDownloader downloader;
+
+    @Before
+    public void startServer() throws IOException {
+        content = TestHttpServer.randomContent(contentSize, 1);
+        server = new TestHttpServer();
+        server.setContent(content, "\"v1\"");
+        LocalFileCache cache = new LocalFileCache(60, temporaryFolder.newFolder("cache").getPath(), true);
+        downloader = new CachingDownloader(cache, temporaryFolder.newFolder("downloads"));
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void revalidatesWithIfNoneMatch() throws IOException {
+        File file = downloader.download(server.getURL());
+        assertNotNull(file);
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(1, server.getFullResponses());
+
+        // Unchanged on the server, so it is answered with 304 and served from disk
+        assertEquals(file, downloader.download(server.getURL()));
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(1, server.getFullResponses());
+        assertEquals(1, server.getNotModifiedResponses());
+
+        byte[] changedContent = TestHttpServer.randomContent(contentSize, 2);
+        server.setContent(changedContent, "\"v2\"");
+        assertEquals(file, downloader.download(server.getURL()));
+        assertArrayEquals(changedContent, Files.readAllBytes(file.toPath()));
+        assertEquals(2, server.getFullResponses());
+        assertEquals(1, server.getNotModifiedResponses());
+
+        // The new ETag was kept, so the changed file is now the one revalidated
+        assertEquals(file, downloader.download(server.getURL()));
+        assertEquals(2, server.getFullResponses());
+        assertEquals(2, server.getNotModifiedResponses());
+    }
+
+    @Test
+    public void sharesOneRequestBetweenConcurrentDownloadsOfAUrl() throws Exception {
+        server.setChunkDelayMillis(2);
+        int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<File>> files = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                files.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws InterruptedException {
+                        start.await();
+                        return downloader.download(server.getURL());
+                    }
+                }));
+            }
+            start.countDown();
+            File first = files.get(0).get(30, TimeUnit.SECONDS);
+            assertNotNull(first);
+            for (Future<File> file : files) {
+                assertEquals(first, file.get(30, TimeUnit.SECONDS));
+            }
+            assertArrayEquals(content, Files.readAllBytes(first.toPath()));
+            // Callers that arrived after the shared request ended revalidate instead of downloading again
+            assertEquals(1, server.getFullResponses());
+            assertTrue(server.getNotModifiedResponses() < threads);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package me.shib.java.lib.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class EntryCodecsTest {
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+
+    private final EntryCodecs codecs = new EntryCodecs();
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private void assertDecodes(byte[] expected, byte[] stored) throws IOException {
+        assertArrayEquals(expected, readFully(codecs.decode(new ByteArrayInputStream(stored))));
+        assertArrayEquals(expected, toArray(codecs.decode(ByteBuffer.wrap(stored))));
+    }
+
+    private static byte[] repetitive(int size) {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < size) {
+            builder.append("{\"key\":\"value\",\"count\":").append(builder.length()).append("}\n");
+        }
+        return builder.toString().getBytes(utf8);
+    }
+
+    @Test
+    public void readsEntriesWithoutHeaderAsTheyAre() throws IOException {
+        byte[] legacy = "{\"legacy\":true}".getBytes(utf8);
+        assertDecodes(legacy, legacy);
+        ByteBuffer buffer = ByteBuffer.wrap(legacy);
+        assertSame(buffer, codecs.decode(buffer));
+        // Shorter than a header, even though it starts like one
+        assertDecodes(new byte[]{0, 'L', 'F'}, new byte[]{0, 'L', 'F'});
+        assertDecodes(new byte[0], new byte[0]);
+        assertNull(codecs.decode((InputStream) null));
+    }
+
+    @Test
+    public void escapesContentThatStartsLikeAHeader() throws IOException {
+        byte[] content = "\u0000LF\u0001 not actually deflated".getBytes(utf8);
+        byte[] stored = codecs.encode(content, null, 0);
+        assertEquals(content.length + 4, stored.length);
+        assertDecodes(content, stored);
+        stored = codecs.encode(content, new DeflateCacheCodec(), Integer.MAX_VALUE);
+        assertDecodes(content, stored);
+    }
+
+    @Test
+    public void reportsLegacyEntriesThatStartLikeAHeaderOfAnUnknownCodec() throws IOException {
+        // Written before codecs existed, so it was never escaped
+        byte[] legacy = "\u0000LF{\"legacy\":true}".getBytes(utf8);
+        try {
+            codecs.decode(ByteBuffer.wrap(legacy));
+            fail("The entry was read with a codec that is not registered");
+        } catch (IOException expected) {
+        }
+        try {
+            readFully(codecs.decode(new ByteArrayInputStream(legacy)));
+            fail("The entry was read with a codec that is not registered");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void detectsTheCodecFromTheHeader() throws IOException {
+        byte[] content = repetitive(64 * 1024);
+        byte[] deflated = codecs.encode(content, new DeflateCacheCodec(), 1024);
+        assertEquals(DeflateCacheCodec.id, deflated[3]);
+        assertTrue(deflated.length < content.length);
+        assertDecodes(content, deflated);
+        byte[] gzipped = codecs.encode(content, new GzipCacheCodec(), 1024);
+        assertEquals(GzipCacheCodec.id, gzipped[3]);
+        assertDecodes(content, gzipped);
+        // Below the threshold, data is stored as it is
+        byte[] small = repetitive(100);
+        assertSame(small, codecs.encode(small, new DeflateCacheCodec(), 1024));
+    }
+}
@@ -0,0 +1,77 @@
+package me.shib.java.lib.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class EntryIndexTest {
+
+    private static final int entryCount = 3000;
+    private static final int rewrittenKeys = 200;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static void rewrite(EntryIndex index, int rounds, long lastModified) throws IOException {
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < rewrittenKeys; i++) {
+                index.put("type", "key" + i, new CacheEntryInfo(lastModified + round, i, -1, -1));
+            }
+        }
+    }
+
+    @Test
+    public void journalGrowsAfterReopenUntilMostlyStale() throws Exception {
+        File journalFile = new File(temporaryFolder.getRoot(), ".index");
+        EntryIndex index = new EntryIndex(journalFile);
+        for (int i = 0; i < entryCount; i++) {
+            index.put("type", "key" + i, new CacheEntryInfo(1, i, -1, -1));
+        }
+        index.close();
+
+        index = new EntryIndex(journalFile);
+        long reopenedLength = journalFile.length();
+        // 1000 more records on top of 3000 live entries is not enough to compact
+        rewrite(index, 5, 10);
+        Thread.sleep(200);
+        long grownLength = journalFile.length();
+        assertTrue(grownLength > reopenedLength);
+
+        // The journal passes twice as many records as live entries during the last round, and is compacted in the
+        // background down to about one record per entry
+        rewrite(index, 11, 100);
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((journalFile.length() > grownLength) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(20);
+        }
+        assertTrue(journalFile.length() <= grownLength);
+        index.close();
+
+        index = new EntryIndex(journalFile);
+        assertEquals(entryCount, index.getKeys("type").size());
+        assertEquals(110, index.get("type", "key5").getLastModified());
+        assertEquals(1, index.get("type", "key" + (entryCount - 1)).getLastModified());
+        index.close();
+    }
+
+    @Test
+    public void removedEntriesStayRemovedAfterReopen() throws IOException {
+        File journalFile = new File(temporaryFolder.getRoot(), ".index");
+        EntryIndex index = new EntryIndex(journalFile);
+        index.put("type", "kept", new CacheEntryInfo(1, 1));
+        index.put("type", "removed", new CacheEntryInfo(1, 1));
+        index.remove("type", "removed");
+        index.close();
+
+        index = new EntryIndex(journalFile);
+        assertNotNull(index.get("type", "kept"));
+        assertNull(index.get("type", "removed"));
+        index.close();
+    }
+
+}
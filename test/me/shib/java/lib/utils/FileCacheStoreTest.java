@@ -0,0 +1,65 @@
+package me.shib.java.lib.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FileCacheStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void keepsTimeToLiveWithoutIndex() throws Exception {
+        LocalFileCache cache = new LocalFileCache(60, temporaryFolder.getRoot().getPath(), true);
+        assertTrue(cache.putDataForKey("type", "short", "hello", 1, TimeUnit.MILLISECONDS));
+        assertTrue(cache.putDataForKey("type", "long", "world", 1, TimeUnit.HOURS));
+        Thread.sleep(50);
+        assertNull(cache.getDataforKey("type", "short"));
+        assertEquals("world\n", cache.getDataforKey("type", "long"));
+    }
+
+    @Test
+    public void keepsTimeToLiveAcrossStores() throws IOException {
+        File directory = temporaryFolder.getRoot();
+        FileCacheStore store = new FileCacheStore(directory, true);
+        store.write("type", "key", "data".getBytes(), 60000);
+        CacheEntryInfo written = store.getEntryInfo("type", "key");
+        assertEquals(60000, written.getTimeToLive());
+        assertTrue(written.getChecksum() >= 0);
+
+        FileCacheStore indexed = new FileCacheStore(directory, true, 0, true);
+        CacheEntryInfo indexedInfo = indexed.getEntryInfo("type", "key");
+        assertEquals(60000, indexedInfo.getTimeToLive());
+        assertTrue(written.isSameVersion(indexedInfo));
+        indexed.close();
+
+        // Rewriting without a time to live drops it
+        store.write("type", "key", "data".getBytes(), -1);
+        assertEquals(-1, store.getEntryInfo("type", "key").getTimeToLive());
+        assertArrayEquals(new String[]{"key"}, store.getKeys("type"));
+    }
+
+    @Test
+    public void answersIndexedLookupsFromMemory() throws IOException {
+        File directory = temporaryFolder.getRoot();
+        FileCacheStore indexed = new FileCacheStore(directory, true, 0, true);
+        indexed.write("type", "known", "data".getBytes(), -1);
+        // Written behind the back of the indexed store after it was opened
+        new FileCacheStore(directory, true).write("type", "unknown", "data".getBytes(), -1);
+        assertNotNull(indexed.getEntryInfo("type", "known"));
+        assertNull(indexed.getEntryInfo("type", "unknown"));
+        indexed.close();
+
+        indexed = new FileCacheStore(directory, true, 0, true);
+        assertNotNull(indexed.getEntryInfo("type", "unknown"));
+        indexed.close();
+    }
+
+}
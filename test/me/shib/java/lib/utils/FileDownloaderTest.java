@@ -0,0 +1,128 @@
+package me.shib.java.lib.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class FileDownloaderTest {
+
+    private static final int contentSize = 4 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private TestHttpServer server;
+    private byte[] content;
+
+    @Before
+    public void startServer() throws IOException {
+        content = TestHttpServer.randomContent(contentSize, 1);
+        server = new TestHttpServer();
+        server.setContent(content, "\"v1\"");
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    private File download(File file, int segmentCount, boolean resumable) {
+        FileDownloader downloader = new FileDownloader(server.getURL(), file);
+        downloader.setSegmentCount(segmentCount);
+        downloader.setResumable(resumable);
+        downloader.run();
+        assertEquals(FileDownloader.DownloadStatus.COMPLETED, downloader.getDownloadProgress().getStatus());
+        return downloader.getDownloadProgress().getDownloadedFile();
+    }
+
+    @Test
+    public void downloadsInSegments() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "segmented.bin");
+        assertEquals(file, download(file, 4, false));
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        // The probe and one request per segment
+        assertEquals(5, server.getPartialResponses());
+        assertEquals(0, server.getFullResponses());
+        assertFalse(new File(file.getPath() + ".part").exists());
+    }
+
+    @Test
+    public void downloadsSegmentsOnTheManagersThreads() throws Exception {
+        File first = new File(temporaryFolder.getRoot(), "first.bin");
+        File second = new File(temporaryFolder.getRoot(), "second.bin");
+        try (DownloadManager manager = new DownloadManager(2, 2)) {
+            FileDownloader firstDownloader = new FileDownloader(server.getURL(), first);
+            firstDownloader.setSegmentCount(4);
+            FileDownloader secondDownloader = new FileDownloader(server.getURL(), second);
+            secondDownloader.setSegmentCount(4);
+            assertEquals(first, manager.submit(firstDownloader, 0).get());
+            assertEquals(second, manager.submit(secondDownloader, 0).get());
+        }
+        assertArrayEquals(content, Files.readAllBytes(first.toPath()));
+        assertArrayEquals(content, Files.readAllBytes(second.toPath()));
+        assertEquals(10, server.getPartialResponses());
+    }
+
+    @Test
+    public void fallsBackToSingleStreamWithoutRangeSupport() throws IOException {
+        server.setRangesSupported(false);
+        File file = new File(temporaryFolder.getRoot(), "single.bin");
+        assertEquals(file, download(file, 4, true));
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        // The probe was answered with the whole file, which was read from that same response
+        assertEquals(0, server.getPartialResponses());
+        assertEquals(1, server.getFullResponses());
+        assertFalse(new File(file.getPath() + ".part.download").exists());
+    }
+
+    @Test
+    public void restartsWhenIfRangeNoLongerMatches() throws IOException {
+        byte[] changedContent = TestHttpServer.randomContent(contentSize, 2);
+        server.changeContentAfterProbe(changedContent, "\"v2\"");
+        File file = new File(temporaryFolder.getRoot(), "changed.bin");
+        assertEquals(file, download(file, 4, true));
+        assertArrayEquals(changedContent, Files.readAllBytes(file.toPath()));
+        assertTrue(server.getFullResponses() > 0);
+        assertFalse(new File(file.getPath() + ".part").exists());
+        assertFalse(new File(file.getPath() + ".part.download").exists());
+    }
+
+    @Test
+    public void resumesCancelledDownload() throws IOException {
+        server.setChunkDelayMillis(2);
+        File file = new File(temporaryFolder.getRoot(), "resumed.bin");
+        final FileDownloader cancelled = new FileDownloader(server.getURL(), file);
+        cancelled.setSegmentCount(4);
+        cancelled.setResumable(true);
+        cancelled.addProgressListener(new FileDownloader.ProgressListener() {
+            @Override
+            public void progressUpdated(FileDownloader.DownloadProgress progress) {
+                if (progress.getDownloadedSize() >= (contentSize / 4)) {
+                    cancelled.cancel();
+                }
+            }
+        }, 0);
+        cancelled.run();
+        assertEquals(FileDownloader.DownloadStatus.CANCELLED, cancelled.getDownloadProgress().getStatus());
+        assertFalse(file.exists());
+        assertTrue(new File(file.getPath() + ".part").exists());
+        assertTrue(new File(file.getPath() + ".part.download").exists());
+
+        server.setChunkDelayMillis(0);
+        long sentBeforeResume = server.getBytesSent();
+        assertEquals(file, download(file, 4, true));
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertTrue((server.getBytesSent() - sentBeforeResume) < contentSize);
+        assertFalse(new File(file.getPath() + ".part").exists());
+        assertFalse(new File(file.getPath() + ".part.download").exists());
+    }
+
+}
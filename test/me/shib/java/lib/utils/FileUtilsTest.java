@@ -0,0 +1,102 @@
+package me.shib.java.lib.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class FileUtilsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File createArchive(String... entryNames) throws IOException {
+        File zipFile = temporaryFolder.newFile("archive.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            for (String entryName : entryNames) {
+                out.putNextEntry(new ZipEntry(entryName));
+                out.write(entryName.getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        }
+        return zipFile;
+    }
+
+    @Test
+    public void extractsRequestedEntriesNextToUnsafeOnes() throws IOException {
+        File zipFile = createArchive("../evil.txt", "dir/good.txt");
+        File outputDirectory = new File(temporaryFolder.getRoot(), "out");
+        assertTrue(FileUtils.unZip(zipFile, "good.txt", outputDirectory));
+        assertEquals("dir/good.txt", new String(Files.readAllBytes(new File(outputDirectory, "dir/good.txt").toPath()), "UTF-8"));
+        assertFalse(new File(temporaryFolder.getRoot(), "evil.txt").exists());
+    }
+
+    @Test
+    public void rejectsUnsafeEntriesThatWouldBeExtracted() throws IOException {
+        File zipFile = createArchive("../evil.txt", "dir/good.txt");
+        File outputDirectory = new File(temporaryFolder.getRoot(), "out");
+        assertFalse(FileUtils.unZip(zipFile, "evil.txt", outputDirectory));
+        assertFalse(FileUtils.unZip(zipFile, outputDirectory));
+        assertFalse(new File(temporaryFolder.getRoot(), "evil.txt").exists());
+        assertTrue(new File(outputDirectory, "dir/good.txt").exists());
+    }
+
+    @Test
+    public void notifiesListenerOutsideOfTheResultLock() throws Exception {
+        String[] entryNames = new String[600];
+        for (int i = 0; i < entryNames.length; i++) {
+            entryNames[i] = "dir" + (i % 7) + "/entry" + i + ".txt";
+        }
+        File zipFile = createArchive(entryNames);
+        File outputDirectory = new File(temporaryFolder.getRoot(), "out");
+        final CountDownLatch calls = new CountDownLatch(2);
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ExtractionResult result = FileUtils.extractAll(zipFile, outputDirectory, executor, new ExtractionListener() {
+                @Override
+                public void entryExtracted(String entryName, File file, long extractedBytes, int extractedCount,
+                                           int totalCount) {
+                    calls.countDown();
+                    if (extractedCount == 1) {
+                        try {
+                            // another worker can only get here if this call does not hold the result
+                            overlapped.set(calls.await(10, TimeUnit.SECONDS));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            });
+            assertTrue(result.isSuccessful());
+            assertEquals(entryNames.length, result.getExtractedCount());
+            assertTrue(overlapped.get());
+            assertEquals(entryNames[599], new String(Files.readAllBytes(new File(outputDirectory, entryNames[599]).toPath()), "UTF-8"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reportsUnreadableArchives() throws IOException {
+        File notAnArchive = temporaryFolder.newFile("broken.zip");
+        Files.write(notAnArchive.toPath(), "not a zip".getBytes("UTF-8"));
+        assertNull(FileUtils.listEntries(notAnArchive));
+        assertFalse(FileUtils.extractEntries(notAnArchive, Collections.singleton("a"), temporaryFolder.getRoot()));
+    }
+
+}
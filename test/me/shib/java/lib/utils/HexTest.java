@@ -0,0 +1,40 @@
+package me.shib.java.lib.utils;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class HexTest {
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+
+    @Test
+    public void keepsLeadingZeros() {
+        byte[] bytes = {0x00, 0x01, 0x0f, 0x10, (byte) 0x80, (byte) 0xff};
+        assertEquals("00010f1080ff", Hex.encode(bytes));
+        assertArrayEquals(bytes, Hex.decode("00010f1080ff"));
+        assertArrayEquals(bytes, Hex.decode("00010F1080FF"));
+        assertEquals("", Hex.encode(new byte[0]));
+        assertArrayEquals(new byte[0], Hex.decode(""));
+    }
+
+    @Test
+    public void roundTripsMultibyteNames() {
+        String[] names = {"key", "café", "日本語", "emoji 😀", "\u0000start"};
+        for (String name : names) {
+            String encoded = Hex.encode(name.getBytes(utf8));
+            assertEquals(name.getBytes(utf8).length * 2, encoded.length());
+            assertEquals(name, new String(Hex.decode(encoded), utf8));
+        }
+        assertEquals("c3a9", Hex.encode("é".getBytes(utf8)));
+    }
+
+    @Test
+    public void readsOddLengthAsLeadingZeroAndRejectsOtherCharacters() {
+        assertArrayEquals(new byte[]{0x0a, (byte) 0xbc}, Hex.decode("abc"));
+        assertNull(Hex.decode("0g"));
+        assertNull(Hex.decode("éé"));
+    }
+}
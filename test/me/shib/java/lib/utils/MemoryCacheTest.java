@@ -0,0 +1,63 @@
+package me.shib.java.lib.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MemoryCacheTest {
+
+    private static final long never = Long.MAX_VALUE;
+
+    private static void put(MemoryCache cache, String key, String content) {
+        cache.putIfUnmodified("type", key, content, never, cache.stamp("type", key));
+    }
+
+    @Test
+    public void removeOnlyInvalidatesFillInOfItsOwnKey() {
+        MemoryCache cache = new MemoryCache(1024);
+        long stamp = cache.stamp("type", "read");
+        String other = null;
+        for (int i = 0; other == null; i++) {
+            cache.remove("type", "written" + i);
+            if (cache.stamp("type", "read") == stamp) {
+                other = "written" + i;
+            } else {
+                stamp = cache.stamp("type", "read");
+            }
+        }
+        cache.remove("type", other);
+        cache.putIfUnmodified("type", "read", "fresh", never, stamp);
+        assertEquals("fresh", cache.get("type", "read"));
+
+        stamp = cache.stamp("type", "read");
+        cache.remove("type", "read");
+        cache.putIfUnmodified("type", "read", "stale", never, stamp);
+        assertNull(cache.get("type", "read"));
+
+        stamp = cache.stamp("type", "read");
+        cache.clear();
+        cache.putIfUnmodified("type", "read", "stale", never, stamp);
+        assertNull(cache.get("type", "read"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWithinBounds() {
+        MemoryCache cache = new MemoryCache(2);
+        put(cache, "a", "1");
+        put(cache, "b", "2");
+        assertEquals("1", cache.get("type", "a"));
+        put(cache, "c", "3");
+        assertEquals("1", cache.get("type", "a"));
+        assertNull(cache.get("type", "b"));
+        assertEquals(1, cache.getEvictionCount());
+
+        cache = new MemoryCache(1024, 1 << 20);
+        for (int i = 0; i < 5000; i++) {
+            put(cache, "key" + i, "content" + i);
+        }
+        assertTrue(cache.size() <= 1024);
+        assertTrue(cache.getSizeInBytes() <= (1 << 20));
+        assertEquals(5000 - cache.size(), cache.getEvictionCount());
+        assertEquals("content4999", cache.get("type", "key4999"));
+    }
+}
@@ -0,0 +1,140 @@
+package me.shib.java.lib.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SegmentLogCacheStoreTest {
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    private static final int keyCount = 50;
+    private static final int deletedKeys = 10;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static String value(int round, int key) {
+        StringBuilder builder = new StringBuilder("round " + round + " of key " + key + " ");
+        while (builder.length() < 100) {
+            builder.append('.');
+        }
+        return builder.toString();
+    }
+
+    private static String read(CacheStore store, String key) throws IOException {
+        try (InputStream in = store.openStream("type", key)) {
+            if (in == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), utf8);
+        }
+    }
+
+    private static File[] listSegments(File directory) {
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        return files;
+    }
+
+    @Test
+    public void recoversFromACrashBeforeSupersededSegmentsWereDeleted() throws IOException {
+        File directory = temporaryFolder.newFolder("store");
+        SegmentLogCacheStore store = new SegmentLogCacheStore(directory, 4096, -1);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < keyCount; i++) {
+                store.write("type", "key" + i, value(round, i).getBytes(utf8), -1);
+            }
+        }
+        // The tombstones land in the last segment, which the compaction replaces
+        for (int i = 0; i < deletedKeys; i++) {
+            assertTrue(store.delete("type", "key" + i));
+        }
+        store.close();
+
+        File snapshot = temporaryFolder.newFolder("snapshot");
+        File[] uncompacted = listSegments(directory);
+        assertTrue(uncompacted.length > 2);
+        for (File file : uncompacted) {
+            Files.copy(file.toPath(), new File(snapshot, file.getName()).toPath());
+        }
+
+        store = new SegmentLogCacheStore(directory, 4096, -1);
+        store.compact();
+        store.write("type", "key" + deletedKeys, "after".getBytes(utf8), -1);
+        store.close();
+
+        // Bring back the segments that the compaction deleted, as if it crashed right after the swap,
+        // and leave a half written compaction behind as well
+        List<File> restored = new ArrayList<>();
+        for (File file : listSegments(snapshot)) {
+            File segment = new File(directory, file.getName());
+            if (!segment.exists()) {
+                Files.copy(file.toPath(), segment.toPath());
+                restored.add(segment);
+            }
+        }
+        assertFalse(restored.isEmpty());
+        File compacting = new File(directory, "segment-99.compacting");
+        Files.write(compacting.toPath(), "partial".getBytes(utf8));
+
+        store = new SegmentLogCacheStore(directory, 4096, -1);
+        try {
+            for (int i = 0; i < deletedKeys; i++) {
+                assertNull(store.getEntryInfo("type", "key" + i));
+                assertNull(read(store, "key" + i));
+            }
+            assertEquals("after", read(store, "key" + deletedKeys));
+            for (int i = deletedKeys + 1; i < keyCount; i++) {
+                assertEquals(value(2, i), read(store, "key" + i));
+            }
+            assertEquals(keyCount - deletedKeys, store.getKeys("type").length);
+            assertFalse(compacting.exists());
+            for (File segment : restored) {
+                assertFalse(segment.getName() + " was not deleted", segment.exists());
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void truncatesATornRecordAtTheEndOfTheLastSegment() throws IOException {
+        File directory = temporaryFolder.newFolder("store");
+        SegmentLogCacheStore store = new SegmentLogCacheStore(directory, 1024 * 1024, -1);
+        store.write("type", "kept", "kept".getBytes(utf8), -1);
+        store.write("type", "torn", value(0, 0).getBytes(utf8), -1);
+        store.close();
+
+        File segment = new File(directory, "segment-1.log");
+        byte[] bytes = Files.readAllBytes(segment.toPath());
+        Files.write(segment.toPath(), Arrays.copyOf(bytes, bytes.length - 10));
+
+        store = new SegmentLogCacheStore(directory, 1024 * 1024, -1);
+        try {
+            assertEquals("kept", read(store, "kept"));
+            assertNull(read(store, "torn"));
+            store.write("type", "next", "next".getBytes(utf8), -1);
+            assertEquals("next", read(store, "next"));
+        } finally {
+            store.close();
+        }
+    }
+}
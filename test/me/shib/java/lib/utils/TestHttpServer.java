@@ -0,0 +1,171 @@
+package me.shib.java.lib.utils;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves a single resource over HTTP with single byte ranges, If-Range and If-None-Match, the way a static file
+ * server would.
+ */
+final class TestHttpServer implements Closeable {
+
+    private static final int chunkSize = 8192;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger fullResponses;
+    private final AtomicInteger partialResponses;
+    private final AtomicInteger notModifiedResponses;
+    private final AtomicLong bytesSent;
+    private volatile byte[] content;
+    private volatile String eTag;
+    private volatile boolean rangesSupported;
+    private volatile long chunkDelayMillis;
+    private byte[] contentAfterProbe;
+    private String eTagAfterProbe;
+
+    TestHttpServer() throws IOException {
+        this.fullResponses = new AtomicInteger();
+        this.partialResponses = new AtomicInteger();
+        this.notModifiedResponses = new AtomicInteger();
+        this.bytesSent = new AtomicLong();
+        this.rangesSupported = true;
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    static byte[] randomContent(int size, long seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    String getURL() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/resource.bin";
+    }
+
+    void setContent(byte[] content, String eTag) {
+        this.content = content;
+        this.eTag = eTag;
+    }
+
+    /**
+     * Replaces the content right after the next range probe has been answered, so that the segments requested after
+     * it no longer match the validator of the probe.
+     */
+    synchronized void changeContentAfterProbe(byte[] content, String eTag) {
+        this.contentAfterProbe = content;
+        this.eTagAfterProbe = eTag;
+    }
+
+    void setRangesSupported(boolean rangesSupported) {
+        this.rangesSupported = rangesSupported;
+    }
+
+    /**
+     * @param chunkDelayMillis how long to pause after sending every chunk of a response body
+     */
+    void setChunkDelayMillis(long chunkDelayMillis) {
+        this.chunkDelayMillis = chunkDelayMillis;
+    }
+
+    int getFullResponses() {
+        return fullResponses.get();
+    }
+
+    int getPartialResponses() {
+        return partialResponses.get();
+    }
+
+    int getNotModifiedResponses() {
+        return notModifiedResponses.get();
+    }
+
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        byte[] body = content;
+        String currentETag = eTag;
+        Headers requestHeaders = exchange.getRequestHeaders();
+        Headers responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.set("ETag", currentETag);
+        if (currentETag.equals(requestHeaders.getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            notModifiedResponses.incrementAndGet();
+            return;
+        }
+        String range = requestHeaders.getFirst("Range");
+        String ifRange = requestHeaders.getFirst("If-Range");
+        int start = 0;
+        int end = body.length - 1;
+        boolean partial = rangesSupported && (range != null) && range.startsWith("bytes=")
+                && ((ifRange == null) || ifRange.equals(currentETag));
+        if (partial) {
+            String[] bounds = range.substring(6).split("-", 2);
+            start = Integer.parseInt(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+            }
+            responseHeaders.set("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+            exchange.sendResponseHeaders(206, (end - start) + 1);
+            partialResponses.incrementAndGet();
+        } else {
+            exchange.sendResponseHeaders(200, body.length);
+            fullResponses.incrementAndGet();
+        }
+        if (partial && "bytes=0-0".equals(range)) {
+            synchronized (this) {
+                if (contentAfterProbe != null) {
+                    setContent(contentAfterProbe, eTagAfterProbe);
+                    contentAfterProbe = null;
+                    eTagAfterProbe = null;
+                }
+            }
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int offset = start; offset <= end; offset += chunkSize) {
+                int count = Math.min(chunkSize, (end - offset) + 1);
+                out.write(body, offset, count);
+                bytesSent.addAndGet(count);
+                if (chunkDelayMillis > 0) {
+                    Thread.sleep(chunkDelayMillis);
+                }
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // The client went away, such as when a download is cancelled
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+}
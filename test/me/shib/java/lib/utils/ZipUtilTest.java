@@ -0,0 +1,86 @@
+package me.shib.java.lib.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class ZipUtilTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    private static List<String> listEntries(File zipFile) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                names.add(entry.getName());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    @Test
+    public void leavesArchiveAndSpilledEntriesWrittenInsideSourceOut() throws IOException {
+        File source = temporaryFolder.newFolder("source");
+        Files.write(new File(source, "a.txt").toPath(), randomContent(2000000));
+        Files.write(new File(source, "b.txt").toPath(), "b".getBytes());
+        File zipFile = new File(source, "self.zip");
+        assertEquals(zipFile, new ZipUtil().zipContent(source, zipFile, false));
+        List<String> expected = new ArrayList<>();
+        expected.add("a.txt");
+        expected.add("b.txt");
+        assertEquals(expected, listEntries(zipFile));
+    }
+
+    @Test
+    public void spillsLargeEntriesToGivenDirectory() throws IOException {
+        File source = temporaryFolder.newFolder("source");
+        Files.write(new File(source, "large.bin").toPath(), randomContent(3000000));
+        File spillDirectory = temporaryFolder.newFolder("spill");
+        ZipUtil zipUtil = new ZipUtil();
+        zipUtil.setSpillDirectory(spillDirectory);
+        File zipFile = new File(temporaryFolder.getRoot(), "spilled.zip");
+        assertEquals(zipFile, zipUtil.zipContent(source, zipFile, false));
+        assertEquals(0, spillDirectory.list().length);
+        assertTrue(spillDirectory.delete());
+        // Spilling to a directory that does not exist fails the archive
+        assertNull(zipUtil.zipContent(source, zipFile, false));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWhenStoredFileNoLongerMatchesItsHeader() throws IOException {
+        File file = temporaryFolder.newFile("stored.bin");
+        byte[] content = randomContent(100000);
+        Files.write(file.toPath(), content);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        // The file changes after its CRC32 was computed
+        content[500]++;
+        Files.write(file.toPath(), content);
+        ZipWriter writer = new ZipWriter(new ByteArrayOutputStream());
+        writer.write(new ZipWriter.Entry("stored.bin", file.lastModified(), ZipWriter.stored, crc.getValue(),
+                content.length, content.length, null, file, false));
+    }
+
+}